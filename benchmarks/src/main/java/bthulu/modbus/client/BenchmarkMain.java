@@ -0,0 +1,21 @@
+package bthulu.modbus.client;
+
+import org.openjdk.jmh.Main;
+
+import java.util.Arrays;
+
+/**
+ * benchmarks.jar的入口, epoll不可用且未指定transport参数时只运行NIO, 跳过RoundTripBenchmark的EPOLL参数而非报错
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        boolean specified = Arrays.stream(args).anyMatch(arg -> arg.startsWith("transport="));
+        if (!specified && Transport.auto() != Transport.EPOLL) {
+            System.out.println("epoll not available, skip transport=EPOLL");
+            args = Arrays.copyOf(args, args.length + 2);
+            args[args.length - 2] = "-p";
+            args[args.length - 1] = "transport=" + Transport.NIO;
+        }
+        Main.main(args);
+    }
+}
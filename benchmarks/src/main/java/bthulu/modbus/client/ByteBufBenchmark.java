@@ -0,0 +1,75 @@
+package bthulu.modbus.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ModbusByteBuf批量及类型解码, 以一个125寄存器的响应为例
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ByteBufBenchmark {
+    private ModbusByteBuf buf;
+    private final float[] floats = new float[62];
+    private final int[] ints = new int[62];
+
+    @Setup
+    public void setup() {
+        byte[] bytes = new byte[250];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        buf = ModbusByteBuf.wrap(bytes);
+    }
+
+    @Benchmark
+    public int[] readIntPerValue() {
+        buf.delegate().readerIndex(0);
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = buf.readInt();
+        }
+        return ints;
+    }
+
+    @Benchmark
+    public int[] readIntBulk() {
+        buf.delegate().readerIndex(0);
+        buf.readInt(ints, 0, ints.length, WordOrder.CDAB);
+        return ints;
+    }
+
+    @Benchmark
+    public float[] readFloatBulk() {
+        buf.delegate().readerIndex(0);
+        buf.readFloat(floats, 0, floats.length, WordOrder.ABCD);
+        return floats;
+    }
+
+    @Benchmark
+    public double[] readDouble() {
+        buf.delegate().readerIndex(0);
+        return buf.readDouble(31, WordOrder.DCBA);
+    }
+
+    @Benchmark
+    public BitSet readBits() {
+        buf.delegate().readerIndex(0);
+        return buf.readBits(125);
+    }
+
+    @Benchmark
+    public char[][] readBitsReverse() {
+        buf.delegate().readerIndex(0);
+        char[][] bits = new char[125][];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buf.readBitsReverse();
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,78 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过EmbeddedChannel测量ModbusCodec的编码及解码开销, 不含网络
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    @Param({"10", "125"})
+    public int count;
+
+    private EmbeddedChannel channel;
+    private ByteBuf response;
+
+    @Setup
+    public void setup() {
+        channel = new EmbeddedChannel(new LengthFieldBasedFrameDecoder(264, 4, 2),
+                new ModbusCodec(5000, (address, unitId) -> PacingPolicy.pipeline(65535), pooled));
+        response = Unpooled.directBuffer(9 + count * 2);
+        response.writeShort(0) // 事务编号, 每次发送前修改
+                .writeShort(0)
+                .writeShort(3 + count * 2)
+                .writeByte(1)
+                .writeByte(3)
+                .writeByte(count * 2)
+                .writeZero(count * 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        response.release();
+    }
+
+    @Benchmark
+    public int readRoundTrip() {
+        CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+        channel.writeAndFlush(new ReadRequest("bench", 1, 0, f, count));
+        ByteBuf frame = channel.readOutbound();
+        response.setShort(0, frame.getUnsignedShort(0));
+        frame.release();
+        channel.writeInbound(response.retainedDuplicate());
+        ModbusByteBuf buf = f.join();
+        int readable = buf.readableBytes();
+        buf.release();
+        return readable;
+    }
+
+    @Benchmark
+    public void writeRoundTrip() {
+        CompletableFuture<Void> f = new CompletableFuture<>();
+        ModbusByteBuf payload = pooled ? ModbusByteBuf.pooled(count * 2) : ModbusByteBuf.capacity(count * 2);
+        payload.delegate().writeZero(count * 2);
+        channel.writeAndFlush(new WriteRequest("bench", 1, 0, f, payload));
+        ByteBuf frame = channel.readOutbound();
+        ByteBuf ack = Unpooled.buffer(12).writeShort(frame.getUnsignedShort(0))
+                .writeShort(0).writeShort(6).writeByte(1).writeByte(16).writeShort(0).writeShort(count);
+        frame.release();
+        channel.writeInbound(ack);
+        f.join();
+    }
+}
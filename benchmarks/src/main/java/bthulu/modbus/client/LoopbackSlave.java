@@ -0,0 +1,64 @@
+package bthulu.modbus.client;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+
+/**
+ * 本机回环的最简modbus从站, 读取返回全0, 写入直接确认, 仅用于基准测试
+ */
+public class LoopbackSlave implements Closeable {
+    private final EventLoopGroup group = new NioEventLoopGroup(1);
+    private final Channel channel;
+
+    public LoopbackSlave() throws InterruptedException {
+        channel = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(264, 4, 2), new Handler());
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+    }
+
+    public String ipPort() {
+        return "127.0.0.1:" + ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    @Override
+    public void close() {
+        channel.close().syncUninterruptibly();
+        group.shutdownGracefully();
+    }
+
+    private static class Handler extends SimpleChannelInboundHandler<ByteBuf> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf in) {
+            int tid = in.getUnsignedShort(0);
+            int unitId = in.getUnsignedByte(6);
+            int fc = in.getUnsignedByte(7);
+            ByteBuf out;
+            if (fc == 3 || fc == 4) {
+                int bytes = in.getUnsignedShort(10) * 2;
+                out = ctx.alloc().buffer(9 + bytes).writeShort(tid).writeShort(0).writeShort(3 + bytes)
+                        .writeByte(unitId).writeByte(fc).writeByte(bytes).writeZero(bytes);
+            } else {
+                out = ctx.alloc().buffer(12).writeShort(tid).writeShort(0).writeShort(6)
+                        .writeByte(unitId).writeByte(fc).writeBytes(in, 8, 4);
+            }
+            ctx.writeAndFlush(out);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大量请求同时在途时, 事务编号分配, 响应匹配及超时检查的开销
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutstandingBenchmark {
+    @Param({"1", "100", "10000"})
+    public int outstanding;
+
+    private EmbeddedChannel channel;
+    private ByteBuf response;
+    private int[] tids;
+    private CompletableFuture<ModbusByteBuf>[] futures;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        channel = new EmbeddedChannel(new LengthFieldBasedFrameDecoder(264, 4, 2),
+                new ModbusCodec(60000, (address, unitId) -> PacingPolicy.pipeline(65535), false));
+        response = Unpooled.directBuffer(11).writeShort(0).writeShort(0).writeShort(5)
+                .writeByte(1).writeByte(3).writeByte(2).writeShort(0);
+        tids = new int[outstanding];
+        futures = new CompletableFuture[outstanding];
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        response.release();
+    }
+
+    /**
+     * 先发出全部请求, 再按相反顺序返回响应, 期间执行一次超时检查
+     */
+    @Benchmark
+    public void sendThenRespond() {
+        for (int i = 0; i < outstanding; i++) {
+            futures[i] = new CompletableFuture<>();
+            channel.write(new ReadRequest("bench", 1, 0, futures[i], 1));
+        }
+        channel.flush();
+        for (int i = 0; i < outstanding; i++) {
+            ByteBuf frame = channel.readOutbound();
+            tids[i] = frame.getUnsignedShort(0);
+            frame.release();
+        }
+        channel.runPendingTasks();
+        for (int i = outstanding - 1; i >= 0; i--) {
+            response.setShort(0, tids[i]);
+            channel.writeInbound(response.retainedDuplicate());
+            futures[i].join();
+        }
+    }
+}
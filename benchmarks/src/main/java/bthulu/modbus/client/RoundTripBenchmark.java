@@ -0,0 +1,61 @@
+package bthulu.modbus.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ModbusMaster经本机回环连接读取的完整往返, 分别测试NIO与epoll(可用时)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RoundTripBenchmark {
+    @Param({"NIO", "EPOLL"})
+    public Transport transport;
+
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    private LoopbackSlave slave;
+    private ModbusMaster master;
+    private ModbusEndpoint endpoint;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        if (transport == Transport.EPOLL && Transport.auto() != Transport.EPOLL) {
+            // 经BenchmarkMain启动时已跳过, 只有显式指定transport=EPOLL时才会到这里
+            throw new IllegalStateException("epoll not available");
+        }
+        slave = new LoopbackSlave();
+        master = new ModbusMaster(5, 60, 15, transport.newGroup());
+        master.setPooled(pooled);
+        master.setPacing(() -> PacingPolicy.pipeline(64));
+        endpoint = master.endpoint(slave.ipPort());
+        master.read(endpoint, 0, 1).release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        master.close();
+        slave.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int read() {
+        ModbusByteBuf buf = master.readAsync(endpoint, 0, 10).join();
+        int readable = buf.readableBytes();
+        buf.release();
+        return readable;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void write() {
+        master.writeAsync(endpoint, 0, ModbusByteBuf.wrap((short) 1, (short) 2)).join();
+    }
+}
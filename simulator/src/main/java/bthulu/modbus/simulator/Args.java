@@ -0,0 +1,46 @@
+package bthulu.modbus.simulator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 解析key=value形式的命令行参数
+ */
+final class Args {
+    private Args() {
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> map = new HashMap<>();
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i <= 0) {
+                throw new IllegalArgumentException("expect key=value: " + arg);
+            }
+            map.put(arg.substring(0, i), arg.substring(i + 1));
+        }
+        return map;
+    }
+
+    static int getInt(Map<String, String> map, String key, int defaultValue) {
+        String value = map.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    static double getDouble(Map<String, String> map, String key, double defaultValue) {
+        String value = map.get(key);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * 故障配置参数: latencyMin, latencyMax, tailRate, tailLatency, busy, drop, connectDelay, 时间单位均为毫秒
+     */
+    static SlaveProfile profile(Map<String, String> map) {
+        return SlaveProfile.NORMAL
+                .latency(getInt(map, "latencyMin", 0), getInt(map, "latencyMax", getInt(map, "latencyMin", 0)))
+                .tail(getDouble(map, "tailRate", 0), getInt(map, "tailLatency", 0))
+                .busy(getDouble(map, "busy", 0))
+                .drop(getDouble(map, "drop", 0))
+                .connectDelay(getInt(map, "connectDelay", 0));
+    }
+}
@@ -0,0 +1,205 @@
+package bthulu.modbus.simulator;
+
+import bthulu.modbus.client.ModbusByteBuf;
+import bthulu.modbus.client.ModbusEndpoint;
+import bthulu.modbus.client.ModbusMaster;
+import bthulu.modbus.client.PacingPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测工具: 启动模拟从站, 由同一进程内的ModbusMaster对每台设备持续发起读取, 每秒输出吞吐与延迟分布.
+ * <p>
+ * 参数格式为key=value:
+ * <ul>
+ * <li>devices: 设备数量, 默认5000</li>
+ * <li>units: 每个端口的设备数量, 默认1</li>
+ * <li>concurrency: 每台设备同时在途的请求数, 默认1</li>
+ * <li>count: 每次读取的寄存器数量, 默认10</li>
+ * <li>seconds: 测量时长, 默认30; warmup: 预热时长, 默认5</li>
+ * <li>timeout: 请求超时秒数, 默认1</li>
+ * <li>pooled: 是否使用池化内存, 默认false, 与ModbusMaster的默认模式一致</li>
+ * <li>udp: 是否使用Modbus/UDP, 默认false</li>
+ * <li>故障配置参数见{@link Args#profile}</li>
+ * </ul>
+ */
+public class LoadDriver {
+    private final ModbusMaster master;
+    private final int count;
+    private volatile boolean running = true;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile Histogram interval = new Histogram();
+    private volatile Histogram total = new Histogram();
+
+    private LoadDriver(ModbusMaster master, int count) {
+        this.master = master;
+        this.count = count;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> map = Args.parse(args);
+        int devices = Args.getInt(map, "devices", 5000);
+        int units = Args.getInt(map, "units", 1);
+        int concurrency = Args.getInt(map, "concurrency", 1);
+        int count = Args.getInt(map, "count", 10);
+        int seconds = Args.getInt(map, "seconds", 30);
+        int warmup = Args.getInt(map, "warmup", 5);
+        SlaveProfile profile = Args.profile(map);
+
+        boolean udp = Boolean.parseBoolean(map.getOrDefault("udp", "false"));
+        SlaveSimulator simulator = new SlaveSimulator(Args.getInt(map, "threads", 0));
+        int ports = (devices + units - 1) / units;
+        List<SimulatedSlave> slaves = udp ? simulator.bindUdp(ports, 0, units, Math.max(count, 1024), profile)
+                : simulator.bind(ports, 0, units, Math.max(count, 1024), profile);
+        ModbusMaster master = new ModbusMaster(Args.getInt(map, "timeout", 1), 60, 15);
+        master.setPooled(Boolean.parseBoolean(map.getOrDefault("pooled", "false")));
+        master.setUdp(udp);
+        master.setPacing(() -> PacingPolicy.pipeline(concurrency));
+
+        List<ModbusEndpoint> endpoints = new ArrayList<>(devices);
+        for (int i = 0; i < devices; i++) {
+            SimulatedSlave slave = slaves.get(i / units);
+            endpoints.add(units == 1 ? master.endpoint(slave.ipPort()) : master.endpoint(slave.ipPort(), i % units + 1));
+        }
+        System.out.println("devices=" + devices + " ports=" + slaves.size() + " concurrency=" + concurrency
+                + " count=" + count + (udp ? " udp" : "") + " " + profile);
+
+        long warmUpStart = System.nanoTime();
+        int unconnected = master.warmUp(endpoints, 3).join().size();
+        System.out.println("warm up " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - warmUpStart)
+                + "ms, unconnected=" + unconnected);
+
+        LoadDriver driver = new LoadDriver(master, count);
+        for (ModbusEndpoint endpoint : endpoints) {
+            for (int i = 0; i < concurrency; i++) {
+                driver.next(endpoint);
+            }
+        }
+        for (int i = 1; i <= warmup + seconds; i++) {
+            Thread.sleep(1000);
+            if (i == warmup) {
+                driver.total = new Histogram();
+                driver.failed.reset();
+            }
+            driver.report(i <= warmup ? "warmup " + i : "second " + (i - warmup));
+        }
+        driver.running = false;
+
+        Histogram h = driver.total;
+        long slaveBusy = 0;
+        long slaveDropped = 0;
+        for (SimulatedSlave slave : slaves) {
+            slaveBusy += slave.busy();
+            slaveDropped += slave.dropped();
+        }
+        System.out.printf("total: %d req/s, p50=%dus p99=%dus p99.9=%dus max=%dus, failed=%d, slave busy=%d dropped=%d%n",
+                h.count() / Math.max(seconds, 1), h.percentileMicros(50), h.percentileMicros(99),
+                h.percentileMicros(99.9), h.maxMicros(), driver.failed.sum(), slaveBusy, slaveDropped);
+        master.close();
+        simulator.close();
+    }
+
+    private void next(ModbusEndpoint endpoint) {
+        if (!running) {
+            return;
+        }
+        long start = System.nanoTime();
+        master.readAsync(endpoint, 0, count).whenComplete((buf, cause) -> {
+            if (cause == null) {
+                buf.release();
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+                interval.record(micros);
+                total.record(micros);
+                completed.increment();
+                next(endpoint);
+            } else {
+                failed.increment();
+                // 失败时稍后重试, 避免对离线设备空转
+                master.group().schedule(() -> next(endpoint), 100, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private void report(String label) {
+        Histogram h = interval;
+        interval = new Histogram();
+        System.out.printf("%s: %d req/s, p50=%dus p99=%dus p99.9=%dus max=%dus, failed=%d%n", label, h.count(),
+                h.percentileMicros(50), h.percentileMicros(99), h.percentileMicros(99.9), h.maxMicros(), failed.sum());
+    }
+
+    /**
+     * 多线程写入的延迟直方图, 每个2的幂区间再等分为8个子区间, 相对误差不超过12.5%
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_COUNT);
+        private final LongAdder count = new LongAdder();
+        private volatile long maxMicros;
+
+        void record(long micros) {
+            buckets.incrementAndGet(index(micros));
+            count.increment();
+            long max = maxMicros;
+            if (micros > max) {
+                // 并发写入时最大值可能略有偏差, 压测统计可以接受
+                maxMicros = micros;
+            }
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long maxMicros() {
+            return maxMicros;
+        }
+
+        long percentileMicros(double percentile) {
+            long total = 0;
+            long[] snapshot = new long[buckets.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        private static int index(long micros) {
+            if (micros < SUB_COUNT) {
+                return (int) Math.max(micros, 0);
+            }
+            int msb = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (msb - SUB_BITS)) & (SUB_COUNT - 1);
+            return (msb - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_COUNT) {
+                return index + 1;
+            }
+            int msb = index / SUB_COUNT + SUB_BITS - 1;
+            int sub = index % SUB_COUNT;
+            return (long) (SUB_COUNT + sub + 1) << (msb - SUB_BITS);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package bthulu.modbus.simulator;
+
+/**
+ * 单个模拟设备的数据区, 保持寄存器与输入寄存器用short数组, 线圈与离散输入按位存放在long数组中.
+ * <p>
+ * 地址范围为[0, size), 超出范围的访问由调用方返回非法数据地址异常.
+ * 多个连接访问同一设备时不加锁, 并发写入时以最后写入为准, 对模拟器而言足够.
+ */
+public class RegisterBank {
+    private final int size;
+    private final short[] holdingRegisters;
+    private final short[] inputRegisters;
+    private final long[] coils;
+    private final long[] discreteInputs;
+
+    public RegisterBank(int size) {
+        if (size <= 0 || size > 0x10000) {
+            throw new IllegalArgumentException("illegal size " + size);
+        }
+        this.size = size;
+        holdingRegisters = new short[size];
+        inputRegisters = new short[size];
+        coils = new long[(size + 63) >>> 6];
+        discreteInputs = new long[(size + 63) >>> 6];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return [address, address + count)是否都在数据区内
+     */
+    public boolean contains(int address, int count) {
+        return address >= 0 && count > 0 && address + count <= size;
+    }
+
+    public short getHoldingRegister(int address) {
+        return holdingRegisters[address];
+    }
+
+    public void setHoldingRegister(int address, int value) {
+        holdingRegisters[address] = (short) value;
+    }
+
+    public short getInputRegister(int address) {
+        return inputRegisters[address];
+    }
+
+    public void setInputRegister(int address, int value) {
+        inputRegisters[address] = (short) value;
+    }
+
+    public boolean getCoil(int address) {
+        return getBit(coils, address);
+    }
+
+    public void setCoil(int address, boolean value) {
+        setBit(coils, address, value);
+    }
+
+    public boolean getDiscreteInput(int address) {
+        return getBit(discreteInputs, address);
+    }
+
+    public void setDiscreteInput(int address, boolean value) {
+        setBit(discreteInputs, address, value);
+    }
+
+    private static boolean getBit(long[] bits, int address) {
+        return (bits[address >>> 6] & (1L << address)) != 0;
+    }
+
+    private static void setBit(long[] bits, int address, boolean value) {
+        if (value) {
+            bits[address >>> 6] |= 1L << address;
+        } else {
+            bits[address >>> 6] &= ~(1L << address);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package bthulu.modbus.simulator;
+
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 监听一个端口的模拟从站, 单元号1到units各对应一个独立的数据区, 相当于网关后挂units台设备.
+ * 请求其它单元号时返回异常码11(网关目标设备无响应).
+ */
+public class SimulatedSlave {
+    private final int units;
+    private final int registerSize;
+    private final RegisterBank[] banks = new RegisterBank[256];
+    Channel serverChannel;
+    final ChannelGroup children = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    private volatile SlaveProfile profile;
+    private volatile boolean online = true;
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder busy = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+
+    SimulatedSlave(int units, int registerSize, SlaveProfile profile) {
+        if (units < 1 || units > 247) {
+            throw new IllegalArgumentException("illegal units " + units);
+        }
+        this.units = units;
+        this.registerSize = registerSize;
+        this.profile = profile;
+    }
+
+    public String ipPort() {
+        InetSocketAddress address = (InetSocketAddress) serverChannel.localAddress();
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    public int units() {
+        return units;
+    }
+
+    /**
+     * @return 单元号对应的数据区, 单元号不在[1, units]内时返回null
+     */
+    public RegisterBank bank(int unitId) {
+        if (unitId < 1 || unitId > units) {
+            return null;
+        }
+        RegisterBank bank = banks[unitId];
+        if (bank == null) {
+            synchronized (banks) {
+                bank = banks[unitId];
+                if (bank == null) {
+                    bank = new RegisterBank(registerSize);
+                    banks[unitId] = bank;
+                }
+            }
+        }
+        return bank;
+    }
+
+    public SlaveProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * 替换延迟与故障配置, 对之后收到的请求生效
+     */
+    public void setProfile(SlaveProfile profile) {
+        this.profile = profile;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * 模拟设备掉线/恢复. 掉线时关闭已有连接, 新连接建立后立即关闭; udp从站掉线期间不响应任何请求
+     */
+    public void setOnline(boolean online) {
+        this.online = online;
+        if (!online) {
+            children.close();
+        }
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    public long busy() {
+        return busy.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public int connections() {
+        return children.size();
+    }
+}
@@ -0,0 +1,264 @@
+package bthulu.modbus.simulator;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 处理一个连接上的modbus tcp请求帧, 按SlaveProfile注入延迟与故障
+ */
+class SlaveHandler extends SimpleChannelInboundHandler<ByteBuf> {
+    static final int ILLEGAL_FUNCTION = 1;
+    static final int ILLEGAL_DATA_ADDRESS = 2;
+    static final int ILLEGAL_DATA_VALUE = 3;
+    static final int SLAVE_DEVICE_BUSY = 6;
+    static final int GATEWAY_TARGET_FAILED = 11;
+
+    private final SimulatedSlave slave;
+    private boolean needFlush;
+
+    SlaveHandler(SimulatedSlave slave) {
+        this.slave = slave;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (!slave.isOnline()) {
+            ctx.close();
+            return;
+        }
+        slave.children.add(ctx.channel());
+        int connectDelayMs = slave.getProfile().connectDelayMs;
+        if (connectDelayMs > 0) {
+            ctx.channel().config().setAutoRead(false);
+            ctx.executor().schedule(() -> {
+                ctx.channel().config().setAutoRead(true);
+            }, connectDelayMs, TimeUnit.MILLISECONDS);
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf in) {
+        SlaveProfile profile = slave.getProfile();
+        ByteBuf out = respond(slave, profile, ctx.alloc(), in);
+        if (out == null) {
+            return;
+        }
+        long delayMs = delayMs(profile);
+        if (delayMs == 0) {
+            ctx.write(out, ctx.voidPromise());
+            needFlush = true;
+        } else {
+            ctx.executor().schedule(() -> {
+                ctx.writeAndFlush(out, ctx.voidPromise());
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 处理一个请求帧, tcp与udp共用
+     *
+     * @return 响应帧, 按丢包率丢弃请求时返回null
+     */
+    static ByteBuf respond(SimulatedSlave slave, SlaveProfile profile, ByteBufAllocator alloc, ByteBuf in) {
+        slave.requests.increment();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (profile.dropRate > 0 && random.nextDouble() < profile.dropRate) {
+            slave.dropped.increment();
+            return null;
+        }
+
+        int tid = in.getUnsignedShort(0);
+        int unitId = in.getUnsignedByte(6);
+        int fc = in.getUnsignedByte(7);
+        ByteBuf out = alloc.buffer(260);
+        out.writeShort(tid).writeShort(0).writeShort(0).writeByte(unitId).writeByte(fc);
+        int code;
+        RegisterBank bank = slave.bank(unitId);
+        if (bank == null) {
+            code = GATEWAY_TARGET_FAILED;
+        } else if (profile.busyRate > 0 && random.nextDouble() < profile.busyRate) {
+            slave.busy.increment();
+            code = SLAVE_DEVICE_BUSY;
+        } else {
+            try {
+                in.skipBytes(8);
+                code = execute(bank, fc, in, out);
+            } catch (IndexOutOfBoundsException e) {
+                // 请求帧长度不足
+                code = ILLEGAL_DATA_VALUE;
+            }
+        }
+        if (code != 0) {
+            out.writerIndex(7).writeByte(fc | 0x80).writeByte(code);
+        }
+        out.setShort(4, out.writerIndex() - 6);
+        return out;
+    }
+
+    /**
+     * @return 按配置的延迟与长尾随机生成的响应延迟
+     */
+    static long delayMs(SlaveProfile profile) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delayMs = profile.latencyMinMs;
+        if (profile.latencyMaxMs > profile.latencyMinMs) {
+            delayMs += random.nextInt(profile.latencyMaxMs - profile.latencyMinMs + 1);
+        }
+        if (profile.tailRate > 0 && random.nextDouble() < profile.tailRate) {
+            delayMs += profile.tailLatencyMs;
+        }
+        return delayMs;
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        // 同一批读到的请求合并为一次flush
+        if (needFlush) {
+            needFlush = false;
+            ctx.flush();
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.close();
+    }
+
+    /**
+     * 执行请求并把响应pdu中功能码之后的部分写入out
+     *
+     * @return 0表示成功, 否则为异常码
+     */
+    private static int execute(RegisterBank bank, int fc, ByteBuf in, ByteBuf out) {
+        switch (fc) {
+            case 1:
+            case 2: {
+                int address = in.readUnsignedShort();
+                int count = in.readUnsignedShort();
+                if (count < 1 || count > 2000) {
+                    return ILLEGAL_DATA_VALUE;
+                }
+                if (!bank.contains(address, count)) {
+                    return ILLEGAL_DATA_ADDRESS;
+                }
+                out.writeByte((count + 7) / 8);
+                int b = 0;
+                for (int i = 0; i < count; i++) {
+                    boolean bit = fc == 1 ? bank.getCoil(address + i) : bank.getDiscreteInput(address + i);
+                    if (bit) {
+                        b |= 1 << (i & 7);
+                    }
+                    if ((i & 7) == 7 || i == count - 1) {
+                        out.writeByte(b);
+                        b = 0;
+                    }
+                }
+                return 0;
+            }
+            case 3:
+            case 4: {
+                int address = in.readUnsignedShort();
+                int count = in.readUnsignedShort();
+                if (count < 1 || count > 125) {
+                    return ILLEGAL_DATA_VALUE;
+                }
+                if (!bank.contains(address, count)) {
+                    return ILLEGAL_DATA_ADDRESS;
+                }
+                out.writeByte(count * 2);
+                for (int i = 0; i < count; i++) {
+                    out.writeShort(fc == 3 ? bank.getHoldingRegister(address + i) : bank.getInputRegister(address + i));
+                }
+                return 0;
+            }
+            case 5: {
+                int address = in.readUnsignedShort();
+                int value = in.readUnsignedShort();
+                if (value != 0xFF00 && value != 0) {
+                    return ILLEGAL_DATA_VALUE;
+                }
+                if (!bank.contains(address, 1)) {
+                    return ILLEGAL_DATA_ADDRESS;
+                }
+                bank.setCoil(address, value == 0xFF00);
+                out.writeShort(address).writeShort(value);
+                return 0;
+            }
+            case 6: {
+                int address = in.readUnsignedShort();
+                int value = in.readUnsignedShort();
+                if (!bank.contains(address, 1)) {
+                    return ILLEGAL_DATA_ADDRESS;
+                }
+                bank.setHoldingRegister(address, value);
+                out.writeShort(address).writeShort(value);
+                return 0;
+            }
+            case 15: {
+                int address = in.readUnsignedShort();
+                int count = in.readUnsignedShort();
+                int byteCount = in.readUnsignedByte();
+                if (count < 1 || count > 1968 || byteCount != (count + 7) / 8 || in.readableBytes() < byteCount) {
+                    return ILLEGAL_DATA_VALUE;
+                }
+                if (!bank.contains(address, count)) {
+                    return ILLEGAL_DATA_ADDRESS;
+                }
+                int start = in.readerIndex();
+                for (int i = 0; i < count; i++) {
+                    bank.setCoil(address + i, (in.getByte(start + (i >> 3)) & (1 << (i & 7))) != 0);
+                }
+                out.writeShort(address).writeShort(count);
+                return 0;
+            }
+            case 16: {
+                int address = in.readUnsignedShort();
+                int count = in.readUnsignedShort();
+                int byteCount = in.readUnsignedByte();
+                if (count < 1 || count > 123 || byteCount != count * 2 || in.readableBytes() < byteCount) {
+                    return ILLEGAL_DATA_VALUE;
+                }
+                if (!bank.contains(address, count)) {
+                    return ILLEGAL_DATA_ADDRESS;
+                }
+                for (int i = 0; i < count; i++) {
+                    bank.setHoldingRegister(address + i, in.readShort());
+                }
+                out.writeShort(address).writeShort(count);
+                return 0;
+            }
+            case 23: {
+                int readAddress = in.readUnsignedShort();
+                int readCount = in.readUnsignedShort();
+                int writeAddress = in.readUnsignedShort();
+                int writeCount = in.readUnsignedShort();
+                int byteCount = in.readUnsignedByte();
+                if (readCount < 1 || readCount > 125 || writeCount < 1 || writeCount > 121
+                        || byteCount != writeCount * 2 || in.readableBytes() < byteCount) {
+                    return ILLEGAL_DATA_VALUE;
+                }
+                if (!bank.contains(readAddress, readCount) || !bank.contains(writeAddress, writeCount)) {
+                    return ILLEGAL_DATA_ADDRESS;
+                }
+                // 先写后读
+                for (int i = 0; i < writeCount; i++) {
+                    bank.setHoldingRegister(writeAddress + i, in.readShort());
+                }
+                out.writeByte(readCount * 2);
+                for (int i = 0; i < readCount; i++) {
+                    out.writeShort(bank.getHoldingRegister(readAddress + i));
+                }
+                return 0;
+            }
+            default:
+                return ILLEGAL_FUNCTION;
+        }
+    }
+}
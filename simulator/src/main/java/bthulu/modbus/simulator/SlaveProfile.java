@@ -0,0 +1,92 @@
+package bthulu.modbus.simulator;
+
+/**
+ * 模拟从站的延迟与故障配置, 不可变, 可在运行时通过{@link SimulatedSlave#setProfile}整体替换.
+ * <pre>
+ * SlaveProfile.NORMAL.latency(5, 20).tail(0.01, 500).busy(0.02).drop(0.001)
+ * </pre>
+ */
+public final class SlaveProfile {
+    /**
+     * 无延迟无故障
+     */
+    public static final SlaveProfile NORMAL = new SlaveProfile(0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * 响应延迟在[latencyMinMs, latencyMaxMs]之间均匀分布
+     */
+    public final int latencyMinMs;
+    public final int latencyMaxMs;
+    /**
+     * 以tailRate的概率额外延迟tailLatencyMs, 模拟长尾
+     */
+    public final double tailRate;
+    public final int tailLatencyMs;
+    /**
+     * 以busyRate的概率返回异常码6(从站设备忙)
+     */
+    public final double busyRate;
+    /**
+     * 以dropRate的概率丢弃请求不响应
+     */
+    public final double dropRate;
+    /**
+     * 连接建立后延迟connectDelayMs才开始读取请求, 模拟慢速建连
+     */
+    public final int connectDelayMs;
+
+    private SlaveProfile(int latencyMinMs, int latencyMaxMs, double tailRate, int tailLatencyMs,
+                         double busyRate, double dropRate, int connectDelayMs) {
+        this.latencyMinMs = latencyMinMs;
+        this.latencyMaxMs = latencyMaxMs;
+        this.tailRate = tailRate;
+        this.tailLatencyMs = tailLatencyMs;
+        this.busyRate = busyRate;
+        this.dropRate = dropRate;
+        this.connectDelayMs = connectDelayMs;
+    }
+
+    public SlaveProfile latency(int minMs, int maxMs) {
+        if (minMs < 0 || maxMs < minMs) {
+            throw new IllegalArgumentException("illegal latency " + minMs + "-" + maxMs);
+        }
+        return new SlaveProfile(minMs, maxMs, tailRate, tailLatencyMs, busyRate, dropRate, connectDelayMs);
+    }
+
+    public SlaveProfile tail(double rate, int latencyMs) {
+        checkRate(rate);
+        if (latencyMs < 0) {
+            throw new IllegalArgumentException("latencyMs is negative");
+        }
+        return new SlaveProfile(latencyMinMs, latencyMaxMs, rate, latencyMs, busyRate, dropRate, connectDelayMs);
+    }
+
+    public SlaveProfile busy(double rate) {
+        checkRate(rate);
+        return new SlaveProfile(latencyMinMs, latencyMaxMs, tailRate, tailLatencyMs, rate, dropRate, connectDelayMs);
+    }
+
+    public SlaveProfile drop(double rate) {
+        checkRate(rate);
+        return new SlaveProfile(latencyMinMs, latencyMaxMs, tailRate, tailLatencyMs, busyRate, rate, connectDelayMs);
+    }
+
+    public SlaveProfile connectDelay(int delayMs) {
+        if (delayMs < 0) {
+            throw new IllegalArgumentException("delayMs is negative");
+        }
+        return new SlaveProfile(latencyMinMs, latencyMaxMs, tailRate, tailLatencyMs, busyRate, dropRate, delayMs);
+    }
+
+    private static void checkRate(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("illegal rate " + rate);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "latency=" + latencyMinMs + "-" + latencyMaxMs + "ms tail=" + tailRate + "@" + tailLatencyMs
+                + "ms busy=" + busyRate + " drop=" + dropRate + " connectDelay=" + connectDelayMs + "ms";
+    }
+}
@@ -0,0 +1,152 @@
+package bthulu.modbus.simulator;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于netty的modbus tcp/udp从站模拟器, 所有模拟从站共用一组EventLoop, 可在本机回环地址上模拟数千台设备.
+ * <p>
+ * 设备数量较多时可以每个端口一台设备, 也可以每个端口通过单元号挂多台设备, 以减少端口与连接数量.
+ */
+public class SlaveSimulator implements Closeable {
+    public static final String HOST = "127.0.0.1";
+
+    private final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+    private final EventLoopGroup workerGroup;
+    private final List<SimulatedSlave> slaves = new ArrayList<>();
+
+    public SlaveSimulator() {
+        this(0);
+    }
+
+    /**
+     * @param threads 处理请求的线程数, 0表示cpu核数的2倍
+     */
+    public SlaveSimulator(int threads) {
+        workerGroup = new NioEventLoopGroup(threads);
+    }
+
+    /**
+     * 在本机回环地址上监听一个端口
+     *
+     * @param port         端口, 0表示随机分配
+     * @param units        该端口下的设备数量, 单元号为1到units
+     * @param registerSize 每台设备各数据区的地址数量
+     */
+    public SimulatedSlave bind(int port, int units, int registerSize, SlaveProfile profile) throws InterruptedException {
+        SimulatedSlave slave = new SimulatedSlave(units, registerSize, profile);
+        slave.serverChannel = new ServerBootstrap().group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 1024)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(260, 4, 2), new SlaveHandler(slave));
+                    }
+                })
+                .bind(HOST, port).sync().channel();
+        synchronized (slaves) {
+            slaves.add(slave);
+        }
+        return slave;
+    }
+
+    /**
+     * 在本机回环地址上以Modbus/UDP监听一个端口, 参数同{@link #bind(int, int, int, SlaveProfile)}
+     */
+    public SimulatedSlave bindUdp(int port, int units, int registerSize, SlaveProfile profile) throws InterruptedException {
+        SimulatedSlave slave = new SimulatedSlave(units, registerSize, profile);
+        slave.serverChannel = new Bootstrap().group(workerGroup).channel(NioDatagramChannel.class)
+                .option(ChannelOption.SO_RCVBUF, 1 << 20)
+                .handler(new UdpSlaveHandler(slave))
+                .bind(HOST, port).sync().channel();
+        synchronized (slaves) {
+            slaves.add(slave);
+        }
+        return slave;
+    }
+
+    /**
+     * 以Modbus/UDP监听多个端口
+     *
+     * @param basePort 起始端口, 依次递增; 0表示每个端口都随机分配
+     */
+    public List<SimulatedSlave> bindUdp(int ports, int basePort, int units, int registerSize, SlaveProfile profile) throws InterruptedException {
+        List<SimulatedSlave> list = new ArrayList<>(ports);
+        for (int i = 0; i < ports; i++) {
+            list.add(bindUdp(basePort == 0 ? 0 : basePort + i, units, registerSize, profile));
+        }
+        return list;
+    }
+
+    /**
+     * 监听多个端口
+     *
+     * @param basePort 起始端口, 依次递增; 0表示每个端口都随机分配
+     */
+    public List<SimulatedSlave> bind(int ports, int basePort, int units, int registerSize, SlaveProfile profile) throws InterruptedException {
+        List<SimulatedSlave> list = new ArrayList<>(ports);
+        for (int i = 0; i < ports; i++) {
+            list.add(bind(basePort == 0 ? 0 : basePort + i, units, registerSize, profile));
+        }
+        return list;
+    }
+
+    public List<SimulatedSlave> slaves() {
+        synchronized (slaves) {
+            return new ArrayList<>(slaves);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (SimulatedSlave slave : slaves()) {
+            slave.serverChannel.close();
+            slave.children.close();
+        }
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+
+    /**
+     * 单独运行模拟器, 供外部的ModbusMaster压测使用.
+     * 参数格式为key=value: ports, basePort, units, registers, threads, udp(为true时以Modbus/UDP监听), 以及故障配置参数(见{@link Args#profile})
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> map = Args.parse(args);
+        SlaveSimulator simulator = new SlaveSimulator(Args.getInt(map, "threads", 0));
+        int ports = Args.getInt(map, "ports", 100);
+        int basePort = Args.getInt(map, "basePort", 15020);
+        int units = Args.getInt(map, "units", 1);
+        int registers = Args.getInt(map, "registers", 1024);
+        List<SimulatedSlave> list = Boolean.parseBoolean(map.getOrDefault("udp", "false"))
+                ? simulator.bindUdp(ports, basePort, units, registers, Args.profile(map))
+                : simulator.bind(ports, basePort, units, registers, Args.profile(map));
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::close));
+        System.out.println("listening on " + list.get(0).ipPort() + " .. " + list.get(list.size() - 1).ipPort()
+                + ", units=" + list.get(0).units() + ", " + list.get(0).getProfile());
+        while (true) {
+            Thread.sleep(10000);
+            long requests = 0;
+            int connections = 0;
+            for (SimulatedSlave slave : list) {
+                requests += slave.requests();
+                connections += slave.connections();
+            }
+            System.out.println("connections=" + connections + " requests=" + requests);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package bthulu.modbus.simulator;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 处理modbus udp请求, 每个数据报为一个完整的请求帧, 响应发回来源地址
+ */
+class UdpSlaveHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+    private final SimulatedSlave slave;
+    private boolean needFlush;
+
+    UdpSlaveHandler(SimulatedSlave slave) {
+        this.slave = slave;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+        ByteBuf in = packet.content();
+        // 离线设备及不完整的帧不响应, 与真实设备一致
+        if (!slave.isOnline() || in.readableBytes() < 8 || in.getUnsignedShort(4) != in.readableBytes() - 6) {
+            return;
+        }
+        SlaveProfile profile = slave.getProfile();
+        ByteBuf out = SlaveHandler.respond(slave, profile, ctx.alloc(), in);
+        if (out == null) {
+            return;
+        }
+        InetSocketAddress sender = packet.sender();
+        long delayMs = SlaveHandler.delayMs(profile);
+        if (delayMs == 0) {
+            ctx.write(new DatagramPacket(out, sender), ctx.voidPromise());
+            needFlush = true;
+        } else {
+            ctx.executor().schedule(() -> {
+                ctx.writeAndFlush(new DatagramPacket(out, sender), ctx.voidPromise());
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        if (needFlush) {
+            needFlush = false;
+            ctx.flush();
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // 共享端口不因单个请求方的错误关闭
+    }
+}
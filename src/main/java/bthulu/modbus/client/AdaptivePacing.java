@@ -0,0 +1,90 @@
+package bthulu.modbus.client;
+
+/**
+ * 加性增/乘性减(AIMD)的发送节奏控制.
+ * <p>
+ * 设备正常响应时, 先逐步缩短发送间隔直至minIntervalMs, 再逐步扩大在途请求窗口直至maxInFlight;
+ * 设备返回繁忙或请求超时时, 在途窗口减半, 窗口已为1时发送间隔加倍, 直至maxIntervalMs.
+ * 同一批在途请求通常会连续返回繁忙, 因此两次收缩之间至少间隔一个发送间隔, 避免一次拥塞被重复惩罚.
+ */
+public class AdaptivePacing implements PacingPolicy {
+    private final int minIntervalMs;
+    private final int maxIntervalMs;
+    private final int maxInFlight;
+
+    private int intervalMs;
+    private double window = 1;
+    private long lastSendTime = Long.MIN_VALUE / 2;
+    private long lastBackoffTime = Long.MIN_VALUE / 2;
+
+    public AdaptivePacing(int minIntervalMs, int maxIntervalMs, int maxInFlight) {
+        if (minIntervalMs < 0) {
+            throw new IllegalArgumentException("minIntervalMs is negative");
+        }
+        if (maxIntervalMs < minIntervalMs) {
+            throw new IllegalArgumentException("maxIntervalMs less than minIntervalMs");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.maxInFlight = maxInFlight;
+        this.intervalMs = minIntervalMs;
+    }
+
+    @Override
+    public long delayMs(long nowMs, int inFlight) {
+        if (inFlight >= (int) window) {
+            return -1;
+        }
+        long next = lastSendTime + intervalMs;
+        return next <= nowMs ? 0 : next - nowMs;
+    }
+
+    @Override
+    public void onSend(long nowMs) {
+        lastSendTime = nowMs;
+    }
+
+    @Override
+    public void onComplete(long nowMs) {
+        if (intervalMs > minIntervalMs) {
+            intervalMs--;
+        } else if (window < maxInFlight) {
+            // 每收到一整个窗口的正常响应, 窗口加1
+            window = Math.min(maxInFlight, window + 1 / window);
+        }
+    }
+
+    @Override
+    public void onBusy(long nowMs) {
+        backoff(nowMs);
+    }
+
+    @Override
+    public void onTimeout(long nowMs) {
+        backoff(nowMs);
+    }
+
+    private void backoff(long nowMs) {
+        if (nowMs - lastBackoffTime < Math.max(intervalMs, 1)) {
+            return;
+        }
+        lastBackoffTime = nowMs;
+        if (window >= 2) {
+            window = Math.floor(window / 2);
+        } else {
+            window = 1;
+            intervalMs = Math.min(maxIntervalMs, Math.max(intervalMs * 2, 1));
+        }
+    }
+
+    public int intervalMs() {
+        return intervalMs;
+    }
+
+    public int window() {
+        return (int) window;
+    }
+}
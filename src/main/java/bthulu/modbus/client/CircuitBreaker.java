@@ -0,0 +1,178 @@
+package bthulu.modbus.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.BiConsumer;
+
+/**
+ * 单个设备的熔断器.
+ * <p>
+ * 连续失败(建连失败, 请求超时, 连接断开)达到阈值后打开, 打开期间请求立即以{@link CircuitOpenException}失败, 不再建连或等待超时.
+ * 打开后在后台按退避时间探测建连, 连接成功后进入半开状态, 每次只放行一个试探请求, 成功则关闭, 失败则重新打开并加倍退避时间.
+ * 设备返回的异常响应(包括设备忙)说明设备在线, 不计为失败.
+ */
+public final class CircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    final ModbusEndpoint endpoint;
+    final CircuitOpenException openException;
+    private final Settings settings;
+
+    private volatile State state = State.CLOSED;
+    /**
+     * 连续失败次数
+     */
+    private volatile int failures;
+    private long backoffMs;
+    private boolean trialInFlight;
+    private long trialStartMs;
+    private volatile long opens;
+
+    CircuitBreaker(ModbusEndpoint endpoint, Settings settings) {
+        this.endpoint = endpoint;
+        this.settings = settings;
+        this.openException = new CircuitOpenException(endpoint + " circuit open");
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * @return 打开的次数
+     */
+    public long opens() {
+        return opens;
+    }
+
+    boolean allowRequest() {
+        if (state == State.CLOSED || settings.failureThreshold <= 0) {
+            return true;
+        }
+        synchronized (this) {
+            if (state != State.HALF_OPEN) {
+                return state == State.CLOSED;
+            }
+            // 试探请求被取消时不会回报结果, 超过试探超时时间后放行下一个
+            long nowMs = System.currentTimeMillis();
+            if (trialInFlight && nowMs - trialStartMs < settings.trialTimeoutMs) {
+                return false;
+            }
+            trialInFlight = true;
+            trialStartMs = nowMs;
+            return true;
+        }
+    }
+
+    void onSuccess() {
+        if (state == State.CLOSED && failures == 0) {
+            return;
+        }
+        synchronized (this) {
+            failures = 0;
+            if (state != State.HALF_OPEN) {
+                return;
+            }
+            state = State.CLOSED;
+            trialInFlight = false;
+            backoffMs = 0;
+        }
+        onStateChange(State.CLOSED);
+    }
+
+    void onFailure() {
+        int threshold = settings.failureThreshold;
+        if (threshold <= 0) {
+            return;
+        }
+        long delayMs;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                return;
+            }
+            if (state == State.CLOSED && ++failures < threshold) {
+                return;
+            }
+            state = State.OPEN;
+            failures = 0;
+            trialInFlight = false;
+            backoffMs = backoffMs == 0 ? settings.openMs : Math.min(backoffMs * 2, settings.maxOpenMs);
+            delayMs = backoffMs;
+            opens++;
+        }
+        onStateChange(State.OPEN);
+        settings.prober.accept(this, delayMs);
+    }
+
+    /**
+     * 后台探测建连成功, 进入半开状态
+     */
+    void halfOpen() {
+        synchronized (this) {
+            if (state != State.OPEN) {
+                return;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        onStateChange(State.HALF_OPEN);
+    }
+
+    /**
+     * 后台探测建连失败, 加倍退避时间
+     *
+     * @return 下次探测的延迟, 已不处于打开状态时返回-1
+     */
+    synchronized long backoff() {
+        if (state != State.OPEN) {
+            return -1;
+        }
+        backoffMs = Math.min(backoffMs * 2, settings.maxOpenMs);
+        return backoffMs;
+    }
+
+    private void onStateChange(State state) {
+        if (state == State.OPEN) {
+            log.warn("{} circuit open", endpoint);
+        } else {
+            log.info("{} circuit {}", endpoint, state == State.CLOSED ? "closed" : "half open");
+        }
+        BiConsumer<ModbusEndpoint, State> listener = settings.listener;
+        if (listener != null) {
+            try {
+                listener.accept(endpoint, state);
+            } catch (Exception e) {
+                log.error(endpoint.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * 同一ModbusMaster下所有熔断器共用的配置
+     */
+    static final class Settings {
+        /**
+         * 连续失败达到该次数时打开, 小于等于0时不熔断
+         */
+        volatile int failureThreshold = 3;
+        volatile long openMs = 1000;
+        volatile long maxOpenMs = 60000;
+        volatile BiConsumer<ModbusEndpoint, State> listener;
+
+        final long trialTimeoutMs;
+        /**
+         * 在指定延迟后探测设备
+         */
+        final BiConsumer<CircuitBreaker, Long> prober;
+
+        Settings(long trialTimeoutMs, BiConsumer<CircuitBreaker, Long> prober) {
+            this.trialTimeoutMs = trialTimeoutMs;
+            this.prober = prober;
+        }
+    }
+}
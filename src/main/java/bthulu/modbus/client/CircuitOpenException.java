@@ -0,0 +1,10 @@
+package bthulu.modbus.client;
+
+/**
+ * 设备熔断期间请求立即失败时抛出的异常. 不填充调用栈, 每个设备预先创建一个实例重复使用
+ */
+public class CircuitOpenException extends ModbusException {
+    CircuitOpenException(String message) {
+        super(message, false);
+    }
+}
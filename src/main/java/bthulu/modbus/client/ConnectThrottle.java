@@ -0,0 +1,72 @@
+package bthulu.modbus.client;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 限制同时进行中的建立连接数量, 避免启动或网络恢复时大量设备同时建连造成SYN风暴. 超出数量的建连请求排队等待
+ */
+final class ConnectThrottle {
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private int maxConcurrent;
+    private int active;
+
+    ConnectThrottle(int maxConcurrent) {
+        setMaxConcurrent(maxConcurrent);
+    }
+
+    void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        synchronized (this) {
+            this.maxConcurrent = maxConcurrent;
+        }
+        // 调大上限后立即放行排队的建连
+        Runnable next;
+        while ((next = poll()) != null) {
+            next.run();
+        }
+    }
+
+    /**
+     * 有空闲名额时立即执行connect, 否则排队. connect完成(无论成功失败)后必须调用{@link #release()}
+     */
+    void acquire(Runnable connect) {
+        synchronized (this) {
+            if (active >= maxConcurrent) {
+                waiting.add(connect);
+                return;
+            }
+            active++;
+        }
+        connect.run();
+    }
+
+    void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                active--;
+                return;
+            }
+        }
+        next.run();
+    }
+
+    synchronized int waiting() {
+        return waiting.size();
+    }
+
+    private synchronized Runnable poll() {
+        if (active >= maxConcurrent) {
+            return null;
+        }
+        Runnable next = waiting.poll();
+        if (next != null) {
+            active++;
+        }
+        return next;
+    }
+}
@@ -0,0 +1,241 @@
+package bthulu.modbus.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 单个设备(从站)的运行指标. 计数只在连接所在的EventLoop中更新, 不加锁; 读取为近似的即时值.
+ * <p>
+ * 同一设备可能同时有多个codec(如对冲读取的第二个连接), 都在同一个EventLoop中, 在途及排队数量由各codec按增减量累加.
+ */
+public class EndpointMetrics implements EndpointMetricsMXBean {
+    private final String endpoint;
+    private final ModbusConnection connection;
+    private final CircuitBreaker breaker;
+
+    /**
+     * 发送到收到响应的延迟
+     */
+    public final LatencyHistogram responseLatency = new LatencyHistogram();
+    /**
+     * 进入发送队列到实际发送的延迟, 包含发送节奏控制的等待时间
+     */
+    public final LatencyHistogram queueLatency = new LatencyHistogram();
+
+    private volatile long requests;
+    private volatile long inFlight;
+    private volatile long timeouts;
+    private volatile long busy;
+    private volatile long lateResponses;
+    private volatile long hedges;
+    private volatile int queued;
+    private volatile int queueCapacity = Integer.MAX_VALUE;
+    private volatile long rejected;
+    private volatile long dropped;
+    private volatile long cancelled;
+    /**
+     * 按异常码统计的异常响应数量
+     */
+    private final AtomicLongArray exceptionCodes = new AtomicLongArray(256);
+
+    EndpointMetrics(String endpoint, ModbusConnection connection, CircuitBreaker breaker) {
+        this.endpoint = endpoint;
+        this.connection = connection;
+        this.breaker = breaker;
+    }
+
+    void onSend(long queueNanos) {
+        queueLatency.record(queueNanos);
+        requests = requests + 1;
+        inFlight = inFlight + 1;
+    }
+
+    void onResponse(long latencyNanos) {
+        responseLatency.record(latencyNanos);
+        inFlight = inFlight - 1;
+    }
+
+    void onException(int code) {
+        exceptionCodes.lazySet(code, exceptionCodes.get(code) + 1);
+        if (code == 5 || code == 6) {
+            busy = busy + 1;
+        }
+    }
+
+    void onTimeout() {
+        timeouts = timeouts + 1;
+        inFlight = inFlight - 1;
+    }
+
+    void onLateResponse() {
+        lateResponses = lateResponses + 1;
+    }
+
+    void onQueueCreated(int capacity) {
+        queueCapacity = capacity;
+    }
+
+    /**
+     * @param delta 排队数量的变化
+     */
+    void onQueue(int delta) {
+        queued = queued + delta;
+    }
+
+    void onReject() {
+        rejected = rejected + 1;
+    }
+
+    void onDrop() {
+        dropped = dropped + 1;
+    }
+
+    void onHedge() {
+        hedges = hedges + 1;
+    }
+
+    void onCancel() {
+        cancelled = cancelled + 1;
+        inFlight = inFlight - 1;
+    }
+
+    /**
+     * 连接关闭, 减去该连接上的在途请求
+     */
+    void onClose(int inFlight) {
+        this.inFlight = this.inFlight - inFlight;
+    }
+
+    /**
+     * 发送队列已用到容量的3/4以上, 调用方应减缓提交普通请求. 只读取最新的计数值, 不阻塞
+     */
+    public boolean isSaturated() {
+        int capacity = queueCapacity;
+        return capacity != Integer.MAX_VALUE && queued >= capacity - capacity / 4;
+    }
+
+    /**
+     * @return 设备返回指定异常码的次数
+     */
+    public long exceptions(int code) {
+        return exceptionCodes.get(code);
+    }
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests;
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    @Override
+    public long getBusy() {
+        return busy;
+    }
+
+    @Override
+    public long getExceptions() {
+        long sum = 0;
+        for (int i = 0; i < exceptionCodes.length(); i++) {
+            sum += exceptionCodes.get(i);
+        }
+        return sum;
+    }
+
+    @Override
+    public long getLateResponses() {
+        return lateResponses;
+    }
+
+    @Override
+    public int getQueued() {
+        return queued;
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public long getHedges() {
+        return hedges;
+    }
+
+    @Override
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public long getConnectAttempts() {
+        return connection == null ? 0 : connection.connectAttempts();
+    }
+
+    @Override
+    public long getConnectFailures() {
+        return connection == null ? 0 : connection.connectFailures();
+    }
+
+    @Override
+    public String getCircuitState() {
+        return breaker == null ? CircuitBreaker.State.CLOSED.name() : breaker.state().name();
+    }
+
+    @Override
+    public long getCircuitOpens() {
+        return breaker == null ? 0 : breaker.opens();
+    }
+
+    @Override
+    public long getResponseLatencyMean() {
+        return responseLatency.meanMicros();
+    }
+
+    @Override
+    public long getResponseLatencyP50() {
+        return responseLatency.percentileMicros(50);
+    }
+
+    @Override
+    public long getResponseLatencyP99() {
+        return responseLatency.percentileMicros(99);
+    }
+
+    @Override
+    public long getResponseLatencyMax() {
+        return responseLatency.maxMicros();
+    }
+
+    @Override
+    public long getQueueLatencyMean() {
+        return queueLatency.meanMicros();
+    }
+
+    @Override
+    public long getQueueLatencyP99() {
+        return queueLatency.percentileMicros(99);
+    }
+
+    @Override
+    public long getQueueLatencyMax() {
+        return queueLatency.maxMicros();
+    }
+}
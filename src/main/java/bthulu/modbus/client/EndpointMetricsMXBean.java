@@ -0,0 +1,70 @@
+package bthulu.modbus.client;
+
+/**
+ * 单个设备(从站)的运行指标, 通过JMX暴露, 延迟单位为微秒
+ */
+public interface EndpointMetricsMXBean {
+    String getEndpoint();
+
+    long getRequests();
+
+    long getInFlight();
+
+    long getTimeouts();
+
+    long getBusy();
+
+    long getExceptions();
+
+    long getLateResponses();
+
+    /**
+     * @return 发送队列中等待发送的请求数量
+     */
+    int getQueued();
+
+    /**
+     * @return 因队列已满被拒绝的请求数量
+     */
+    long getRejected();
+
+    /**
+     * @return 被挤出队列或在队列中等待超过请求超时时间而未发送的请求数量
+     */
+    long getDropped();
+
+    /**
+     * @return 对冲读取时在第二个连接上重复发送的次数
+     */
+    long getHedges();
+
+    /**
+     * @return 发送后被取消的请求数量, 如对冲读取中落败的请求
+     */
+    long getCancelled();
+
+    long getConnectAttempts();
+
+    long getConnectFailures();
+
+    /**
+     * @return 熔断器状态: CLOSED, OPEN, HALF_OPEN
+     */
+    String getCircuitState();
+
+    long getCircuitOpens();
+
+    long getResponseLatencyMean();
+
+    long getResponseLatencyP50();
+
+    long getResponseLatencyP99();
+
+    long getResponseLatencyMax();
+
+    long getQueueLatencyMean();
+
+    long getQueueLatencyP99();
+
+    long getQueueLatencyMax();
+}
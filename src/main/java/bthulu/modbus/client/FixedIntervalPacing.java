@@ -0,0 +1,24 @@
+package bthulu.modbus.client;
+
+public class FixedIntervalPacing implements PacingPolicy {
+    private final int intervalMs;
+    private long lastSendTime = Long.MIN_VALUE / 2;
+
+    public FixedIntervalPacing(int intervalMs) {
+        if (intervalMs < 0) {
+            throw new IllegalArgumentException("intervalMs is negative");
+        }
+        this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public long delayMs(long nowMs, int inFlight) {
+        long next = lastSendTime + intervalMs;
+        return next <= nowMs ? 0 : next - nowMs;
+    }
+
+    @Override
+    public void onSend(long nowMs) {
+        lastSendTime = nowMs;
+    }
+}
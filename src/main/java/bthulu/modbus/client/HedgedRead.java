@@ -0,0 +1,74 @@
+package bthulu.modbus.client;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 一次对冲读取: 主请求超过指定延迟仍未完成时发送备份请求, 以先成功者为准, 另一个被取消.
+ * 两者都失败时以后失败者的异常结束
+ */
+final class HedgedRead {
+    final CompletableFuture<ModbusByteBuf> result = new CompletableFuture<>();
+
+    private final CompletableFuture<ModbusByteBuf> primary;
+    private CompletableFuture<ModbusByteBuf> backup;
+    private ScheduledFuture<?> timer;
+    private boolean decided;
+
+    HedgedRead(CompletableFuture<ModbusByteBuf> primary) {
+        this.primary = primary;
+    }
+
+    /**
+     * @param sender 发送备份请求
+     */
+    void start(EventExecutor executor, long delayMs, Supplier<CompletableFuture<ModbusByteBuf>> sender) {
+        synchronized (this) {
+            timer = executor.schedule(() -> hedge(sender), delayMs, TimeUnit.MILLISECONDS);
+        }
+        primary.whenComplete((buf, cause) -> onComplete(primary, buf, cause));
+    }
+
+    private void hedge(Supplier<CompletableFuture<ModbusByteBuf>> sender) {
+        CompletableFuture<ModbusByteBuf> f;
+        synchronized (this) {
+            if (primary.isDone()) {
+                return;
+            }
+            f = backup = sender.get();
+        }
+        f.whenComplete((buf, cause) -> onComplete(f, buf, cause));
+    }
+
+    private void onComplete(CompletableFuture<ModbusByteBuf> self, ModbusByteBuf buf, Throwable cause) {
+        CompletableFuture<ModbusByteBuf> other;
+        synchronized (this) {
+            other = self == primary ? backup : primary;
+            if (cause != null && other != null && !other.isDone()) {
+                // 另一个请求仍可能成功
+                return;
+            }
+            if (decided) {
+                // 另一个请求已先完成
+                if (buf != null) {
+                    buf.release();
+                }
+                return;
+            }
+            decided = true;
+            timer.cancel(false);
+        }
+        if (cause != null) {
+            result.completeExceptionally(cause);
+            return;
+        }
+        if (other != null) {
+            other.cancel(false);
+        }
+        result.complete(buf);
+    }
+}
@@ -0,0 +1,68 @@
+package bthulu.modbus.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按2的幂划分区间的延迟直方图, 第n个区间记录[2^(n-1), 2^n)微秒的样本.
+ * <p>
+ * 只允许一个线程(连接所在的EventLoop)写入, 写入无锁, 其它线程可随时读取近似值.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private volatile long count;
+    private volatile long sumMicros;
+    private volatile long maxMicros;
+
+    void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+        int index = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        // 单线程写入, lazySet即可保证其它线程最终可见
+        buckets.lazySet(index, buckets.get(index) + 1);
+        sumMicros = sumMicros + micros;
+        if (micros > maxMicros) {
+            maxMicros = micros;
+        }
+        count = count + 1;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long meanMicros() {
+        long c = count;
+        return c == 0 ? 0 : sumMicros / c;
+    }
+
+    public long maxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * @param percentile 0到100之间
+     * @return 该百分位所在区间的上界(微秒)
+     */
+    public long percentileMicros(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+}
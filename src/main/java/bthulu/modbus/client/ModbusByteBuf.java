@@ -1,19 +1,40 @@
 package bthulu.modbus.client;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 
+import java.util.BitSet;
+
 public class ModbusByteBuf {
-    private final ByteBuf unpooled;
+    private final ByteBuf buf;
 
     private ModbusByteBuf(int initialCapacity) {
-        this.unpooled = Unpooled.buffer(initialCapacity);
+        this.buf = Unpooled.buffer(initialCapacity);
+    }
+
+    private ModbusByteBuf(ByteBuf buf) {
+        this.buf = buf;
     }
 
     public static ModbusByteBuf capacity(int initialCapacity) {
         return new ModbusByteBuf(initialCapacity);
     }
 
+    /**
+     * 从池化内存分配, 作为写入数据时发送后由框架释放, 否则使用完毕后必须调用{@link #release()}
+     */
+    public static ModbusByteBuf pooled(int initialCapacity) {
+        return new ModbusByteBuf(ByteBufAllocator.DEFAULT.buffer(initialCapacity));
+    }
+
+    /**
+     * 直接引用buf, 不复制, buf的所有权转移给返回的ModbusByteBuf
+     */
+    static ModbusByteBuf wrap(ByteBuf buf) {
+        return new ModbusByteBuf(buf);
+    }
+
     public static ModbusByteBuf wrap(int... data) {
         if (data.length > 62) {
             throw new ModbusException("exceed limited 125 registers");
@@ -37,117 +58,271 @@ public class ModbusByteBuf {
             throw new IllegalArgumentException("bytes length is odd");
         }
         ModbusByteBuf buf = new ModbusByteBuf(data.length);
-        buf.unpooled.writeBytes(data);
+        buf.buf.writeBytes(data);
         return buf;
     }
 
+    /**
+     * 读取CDAB字节序的32位整数
+     */
     public int readInt() {
-        byte b0 = unpooled.readByte();
-        byte b1 = unpooled.readByte();
-        byte b2 = unpooled.readByte();
-        byte b3 = unpooled.readByte();
-        return (b2 << 24) | ((b3 & 0xFF) << 16) | ((b0 & 0xFF) << 8) | (b1 & 0xFF);
+        return readInt(WordOrder.CDAB);
     }
 
+    /**
+     * 读取CDAB字节序的32位整数数组
+     */
     public int[] readInt(int count) {
+        return readInt(count, WordOrder.CDAB);
+    }
+
+    public int readInt(WordOrder order) {
+        return order.apply(buf.readInt());
+    }
+
+    public int[] readInt(int count, WordOrder order) {
         int[] ints = new int[count];
-        for (int i = 0; i < count * 4; i += 4) {
-            byte b0 = unpooled.readByte();
-            byte b1 = unpooled.readByte();
-            byte b2 = unpooled.readByte();
-            byte b3 = unpooled.readByte();
-            ints[i / 4] = (b2 << 24) | ((b3 & 0xFF) << 16) | ((b0 & 0xFF) << 8) | (b1 & 0xFF);
-        }
+        readInt(ints, 0, count, order);
         return ints;
     }
 
+    /**
+     * 读取len个32位整数填充到dst中
+     */
+    public void readInt(int[] dst, int offset, int len, WordOrder order) {
+        int index = buf.readerIndex();
+        checkReadable(len * 4);
+        for (int i = 0; i < len; i++, index += 4) {
+            dst[offset + i] = order.apply(buf.getInt(index));
+        }
+        buf.skipBytes(len * 4);
+    }
+
+    public long readUnsignedInt(WordOrder order) {
+        return order.apply(buf.readInt()) & 0xFFFFFFFFL;
+    }
+
+    public long[] readUnsignedInt(int count, WordOrder order) {
+        long[] longs = new long[count];
+        int index = buf.readerIndex();
+        checkReadable(count * 4);
+        for (int i = 0; i < count; i++, index += 4) {
+            longs[i] = order.apply(buf.getInt(index)) & 0xFFFFFFFFL;
+        }
+        buf.skipBytes(count * 4);
+        return longs;
+    }
+
+    public float readFloat(WordOrder order) {
+        return Float.intBitsToFloat(order.apply(buf.readInt()));
+    }
+
+    public float[] readFloat(int count, WordOrder order) {
+        float[] floats = new float[count];
+        readFloat(floats, 0, count, order);
+        return floats;
+    }
+
+    /**
+     * 读取len个32位浮点数填充到dst中
+     */
+    public void readFloat(float[] dst, int offset, int len, WordOrder order) {
+        int index = buf.readerIndex();
+        checkReadable(len * 4);
+        for (int i = 0; i < len; i++, index += 4) {
+            dst[offset + i] = Float.intBitsToFloat(order.apply(buf.getInt(index)));
+        }
+        buf.skipBytes(len * 4);
+    }
+
+    public long readLong(WordOrder order) {
+        return order.apply(buf.readLong());
+    }
+
+    public long[] readLong(int count, WordOrder order) {
+        long[] longs = new long[count];
+        readLong(longs, 0, count, order);
+        return longs;
+    }
+
+    /**
+     * 读取len个64位整数填充到dst中
+     */
+    public void readLong(long[] dst, int offset, int len, WordOrder order) {
+        int index = buf.readerIndex();
+        checkReadable(len * 8);
+        for (int i = 0; i < len; i++, index += 8) {
+            dst[offset + i] = order.apply(buf.getLong(index));
+        }
+        buf.skipBytes(len * 8);
+    }
+
+    public double readDouble(WordOrder order) {
+        return Double.longBitsToDouble(order.apply(buf.readLong()));
+    }
+
+    public double[] readDouble(int count, WordOrder order) {
+        double[] doubles = new double[count];
+        readDouble(doubles, 0, count, order);
+        return doubles;
+    }
+
+    /**
+     * 读取len个64位浮点数填充到dst中
+     */
+    public void readDouble(double[] dst, int offset, int len, WordOrder order) {
+        int index = buf.readerIndex();
+        checkReadable(len * 8);
+        for (int i = 0; i < len; i++, index += 8) {
+            dst[offset + i] = Double.longBitsToDouble(order.apply(buf.getLong(index)));
+        }
+        buf.skipBytes(len * 8);
+    }
+
     public short readShort() {
-        return unpooled.readShort();
+        return buf.readShort();
     }
 
     public int readUnsignedShort() {
-        return unpooled.readUnsignedShort();
+        return buf.readUnsignedShort();
     }
 
     public short[] readShort(int count) {
         short[] shorts = new short[count];
-        for (int i = 0; i < count; i++) {
-            shorts[i] = unpooled.readShort();
-        }
+        readShort(shorts, 0, count);
         return shorts;
     }
 
+    public void readShort(short[] dst, int offset, int len) {
+        int index = buf.readerIndex();
+        checkReadable(len * 2);
+        for (int i = 0; i < len; i++, index += 2) {
+            dst[offset + i] = buf.getShort(index);
+        }
+        buf.skipBytes(len * 2);
+    }
+
     public byte readByte() {
-        return unpooled.readByte();
+        return buf.readByte();
     }
 
     public byte[] readByte(int count) {
         byte[] bytes = new byte[count];
-        for (int i = 0; i < count; i++) {
-            bytes[i] = unpooled.readByte();
-        }
+        buf.readBytes(bytes);
         return bytes;
     }
 
+    public void readByte(byte[] dst, int offset, int len) {
+        buf.readBytes(dst, offset, len);
+    }
+
+    /**
+     * 读取一个寄存器的16个位, 下标0为最低位
+     */
     public char[] readBitsReverse() {
-        int us = unpooled.readUnsignedShort();
-        char[] uscs = Integer.toBinaryString(us).toCharArray();
+        int us = buf.readUnsignedShort();
         char[] cs = new char[16];
-        for (int i = 0; i < uscs.length; i++) {
-            cs[i] = uscs[uscs.length - 1 - i];
-        }
-        for (int i = uscs.length; i < 16; i++) {
-            cs[i] = '0';
+        for (int i = 0; i < 16; i++) {
+            cs[i] = (us & (1 << i)) != 0 ? '1' : '0';
         }
         return cs;
     }
 
+    /**
+     * 读取最多4个寄存器的位, 第n个寄存器的最低位对应返回值的第n*16位
+     */
+    public long readBitMask(int registers) {
+        if (registers > 4) {
+            throw new IllegalArgumentException("registers exceed 4");
+        }
+        int index = buf.readerIndex();
+        checkReadable(registers * 2);
+        long mask = 0;
+        for (int i = 0; i < registers; i++, index += 2) {
+            mask |= (long) buf.getUnsignedShort(index) << (i * 16);
+        }
+        buf.skipBytes(registers * 2);
+        return mask;
+    }
+
+    /**
+     * 读取多个寄存器的位, 第n个寄存器的最低位对应下标n*16
+     */
+    public BitSet readBits(int registers) {
+        long[] words = new long[(registers + 3) / 4];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = readBitMask(Math.min(4, registers - i * 4));
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * 读取功能码1, 2返回的线圈或离散输入, 下标n对应起始地址后第n个线圈
+     */
+    public BitSet readCoils(int count) {
+        byte[] bytes = new byte[(count + 7) / 8];
+        buf.readBytes(bytes);
+        BitSet bits = BitSet.valueOf(bytes);
+        if (bits.length() > count) {
+            bits.clear(count, bits.length());
+        }
+        return bits;
+    }
+
+    private void checkReadable(int bytes) {
+        if (buf.readableBytes() < bytes) {
+            throw new IndexOutOfBoundsException("readable bytes " + buf.readableBytes() + " less than " + bytes);
+        }
+    }
+
     public ModbusByteBuf skipRegisters(int length) {
-        unpooled.skipBytes(length * 2);
+        buf.skipBytes(length * 2);
         return this;
     }
 
     public int readableBytes() {
-        return unpooled.readableBytes();
+        return buf.readableBytes();
     }
 
     ByteBuf delegate() {
-        return unpooled;
+        return buf;
     }
 
     public ModbusByteBuf addInt(int data) {
-        unpooled.writeBytes(new byte[]{(byte) (data >> 8), (byte) (data), (byte) (data >> 24), (byte) (data >> 16)});
+        // 低位字在前, 字内高位字节在前
+        buf.writeShort(data).writeShort(data >>> 16);
         return this;
     }
 
     public ModbusByteBuf addInt(int... data) {
+        buf.ensureWritable(data.length * 4);
         for (int i : data) {
-            unpooled.writeBytes(new byte[]{(byte) (i >> 8), (byte) (i), (byte) (i >> 24), (byte) (i >> 16)});
+            buf.writeShort(i).writeShort(i >>> 16);
         }
         return this;
     }
 
     public ModbusByteBuf addShort(short data) {
-        unpooled.writeShort(data);
+        buf.writeShort(data);
         return this;
     }
 
     public ModbusByteBuf addShort(short... data) {
         for (short s : data) {
-            unpooled.writeShort(s);
+            buf.writeShort(s);
         }
         return this;
     }
 
     public ModbusByteBuf addShort(int... data) {
         for (int s : data) {
-            unpooled.writeShort(s);
+            buf.writeShort(s);
         }
         return this;
     }
 
     public ModbusByteBuf addShort(int data) {
-        unpooled.writeShort(data);
+        buf.writeShort(data);
         return this;
     }
 
@@ -155,12 +330,12 @@ public class ModbusByteBuf {
         if ((data.length & 0x01) == 1) {
             throw new IllegalArgumentException("bytes length is odd");
         }
-        unpooled.writeBytes(data);
+        buf.writeBytes(data);
         return this;
     }
 
-    public ModbusByteBuf add(ByteBuf buf) {
-        unpooled.writeBytes(buf);
+    public ModbusByteBuf add(ByteBuf src) {
+        buf.writeBytes(src);
         return this;
     }
 
@@ -171,6 +346,6 @@ public class ModbusByteBuf {
     }
 
     public boolean release() {
-        return unpooled.release();
+        return buf.release();
     }
 }
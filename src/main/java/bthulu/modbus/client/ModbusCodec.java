@@ -1,6 +1,7 @@
 package bthulu.modbus.client;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
@@ -9,127 +10,592 @@ import io.netty.util.concurrent.ScheduledFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class ModbusCodec extends ChannelDuplexHandler {
     private static final Logger log = LoggerFactory.getLogger(ModbusCodec.class);
 
-    private final Map<Integer, ModbusRequest> requestMap = new ConcurrentHashMap<>();
+    /**
+     * 以事务编号为下标保存等待响应的请求
+     */
+    private final ModbusRequest[] slots = new ModbusRequest[65536];
+
+    private int nextTid;
+
+    /**
+     * 已发送的请求, 超时时间固定, 因此按发送顺序排列也就是按超时时间排列. 收到响应的请求不在此移除, 由超时检查时跳过
+     */
+    private final Deque<ModbusRequest> timeoutQueue = new ArrayDeque<>();
+
+    private ScheduledFuture<?> sweepSchedule;
 
     private final int requestTimeoutMs;
 
-    private final AtomicInteger tidAi = new AtomicInteger(0);
+    /**
+     * 是否启用池化零拷贝模式
+     */
+    private final boolean pooled;
+
+    private final BiFunction<SocketAddress, Integer, PacingPolicy> pacingFactory;
+
+    private final Function<SocketAddress, QueueLimit> queueLimitFactory;
+
+    private SocketAddress remoteAddress;
+
+    /**
+     * 以从站编号为下标, 同一连接下的各从站(如网关后的多个RTU从站)独立排队和控制发送节奏, 共用事务编号
+     */
+    private final Unit[] units = new Unit[256];
 
     public ModbusCodec(int requestTimeoutMs) {
+        // 冠亿modbus设备处理能力有限, 连续不间断发送请求, 会导致部分请求返回设备繁忙.
+        // 因此将两次连续发送间隔一小段时间, 5ms的时间间隔能确保连续读取1000次, 设备繁忙率在千分之五以下
+        this(requestTimeoutMs, address -> PacingPolicy.fixedInterval(5));
+    }
+
+    /**
+     * @param pacingFactory 根据设备地址创建该连接的发送节奏控制
+     */
+    public ModbusCodec(int requestTimeoutMs, Function<SocketAddress, PacingPolicy> pacingFactory) {
+        this(requestTimeoutMs, (address, unitId) -> pacingFactory.apply(address), false);
+    }
+
+    /**
+     * @param pacingFactory 根据设备地址和从站编号创建该从站的发送节奏控制
+     * @param pooled        为true时, 读取结果直接引用接收到的池化报文, 使用完毕后必须调用{@link ModbusByteBuf#release()};
+     *                      写入数据不再复制, 与报文头组合后直接发送
+     */
+    public ModbusCodec(int requestTimeoutMs, BiFunction<SocketAddress, Integer, PacingPolicy> pacingFactory, boolean pooled) {
+        this(requestTimeoutMs, pacingFactory, address -> QueueLimit.unbounded(), pooled);
+    }
+
+    /**
+     * @param queueLimitFactory 根据设备地址创建各从站发送队列的容量限制
+     */
+    public ModbusCodec(int requestTimeoutMs, BiFunction<SocketAddress, Integer, PacingPolicy> pacingFactory,
+                       Function<SocketAddress, QueueLimit> queueLimitFactory, boolean pooled) {
         this.requestTimeoutMs = requestTimeoutMs;
+        this.pacingFactory = pacingFactory;
+        this.queueLimitFactory = queueLimitFactory;
+        this.pooled = pooled;
+    }
+
+    /**
+     * 不随连接建立而得知对端地址的传输方式(如Modbus/UDP)使用, 直接指定对端地址
+     */
+    ModbusCodec(SocketAddress remoteAddress, int requestTimeoutMs, BiFunction<SocketAddress, Integer, PacingPolicy> pacingFactory,
+                Function<SocketAddress, QueueLimit> queueLimitFactory, boolean pooled) {
+        this(requestTimeoutMs, pacingFactory, queueLimitFactory, pooled);
+        this.remoteAddress = remoteAddress;
     }
 
-    private long lastWriteTime;
+    @Override
+    public void connect(ChannelHandlerContext ctx, SocketAddress remoteAddress, SocketAddress localAddress, ChannelPromise promise) {
+        this.remoteAddress = remoteAddress;
+        ctx.connect(remoteAddress, localAddress, promise);
+    }
 
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
-        // 冠亿modbus设备处理能力有限, 连续不间断发送请求, 会导致部分请求返回设备繁忙.
-        // 因此将两次连续发送间隔一小段时间, 5ms的时间间隔能确保连续读取1000次, 设备繁忙率在千分之五以下
-        long nowMs = System.currentTimeMillis();
-        if (lastWriteTime + 5 < nowMs) {
-            lastWriteTime = nowMs;
-            write(ctx, (ModbusRequest) msg);
+        ModbusRequest request = (ModbusRequest) msg;
+        if (!ctx.channel().isActive()) {
+            request.future().completeExceptionally(ModbusException.stackless(request.ipPort + " connection closed"));
             return;
         }
-        long executeTime = lastWriteTime + 5;
-        lastWriteTime = executeTime;
-        ctx.executor().schedule(() -> write(ctx, (ModbusRequest) msg), executeTime - nowMs, TimeUnit.MILLISECONDS);
+        startSweep(ctx);
+        if (request.cancellable) {
+            request.future().whenComplete((v, cause) -> {
+                if (cause instanceof CancellationException) {
+                    ctx.executor().execute(() -> cancel(ctx, request));
+                }
+            });
+        }
+        request.enqueueNanos = System.nanoTime();
+        Unit unit = unit(ctx, request);
+        if (enqueue(unit, request)) {
+            drain(ctx, unit);
+        }
     }
 
-    private void write(ChannelHandlerContext ctx, ModbusRequest request) {
-        int tid = tidAi.incrementAndGet() % 65535;
-        // 超时处理, 并保存本次请求等待响应
-        ScheduledFuture<?> schedule = ctx.executor().schedule(() -> {
-            requestMap.remove(tid);
+    /**
+     * 加入对应优先级的队列. 队列已满时, 高优先级请求或DROP_OLDEST策略下挤掉最早的普通请求, 否则拒绝
+     *
+     * @return 是否已加入队列
+     */
+    private boolean enqueue(Unit unit, ModbusRequest request) {
+        if (unit.queued() >= unit.limit.maxQueued) {
+            ModbusRequest oldest = request.priority == Priority.HIGH || unit.limit.overflow == QueueLimit.Overflow.DROP_OLDEST
+                    ? unit.pending.poll() : null;
+            if (oldest == null) {
+                unit.metrics.onReject();
+                request.future().completeExceptionally(new RejectedRequestException(request.ipPort + " queue full"));
+                return false;
+            }
+            unit.metrics.onDrop();
+            oldest.future().completeExceptionally(new RejectedRequestException(oldest.ipPort + " dropped from full queue"));
+        }
+        (request.priority == Priority.HIGH ? unit.urgent : unit.pending).add(request);
+        unit.reportQueued();
+        return true;
+    }
+
+    private Unit unit(ChannelHandlerContext ctx, ModbusRequest request) {
+        int unitId = request.unitId;
+        Unit unit = units[unitId];
+        if (unit == null) {
+            SocketAddress address = remoteAddress == null ? ctx.channel().remoteAddress() : remoteAddress;
+            // 不经ModbusMaster直接发送的请求没有指标对象, 使用不对外暴露的独立指标
+            EndpointMetrics metrics = request.metrics != null ? request.metrics : new EndpointMetrics(String.valueOf(address), null, null);
+            unit = units[unitId] = new Unit(pacingFactory.apply(address, unitId), queueLimitFactory.apply(address), metrics);
+            metrics.onQueueCreated(unit.limit.maxQueued);
+        }
+        return unit;
+    }
+
+    private void drain(ChannelHandlerContext ctx, Unit unit) {
+        PacingPolicy pacing = unit.pacing;
+        boolean written = false;
+        ModbusRequest request;
+        while ((request = unit.peek()) != null) {
             if (request.future().isDone()) {
+                // 排队期间已被取消
+                unit.poll();
+                continue;
+            }
+            if (request instanceof ReadRequest
+                    && System.nanoTime() - request.enqueueNanos > TimeUnit.MILLISECONDS.toNanos(requestTimeoutMs)) {
+                // 排队超过请求超时时间的读取结果已过时, 不再发送
+                unit.poll();
+                unit.metrics.onDrop();
+                request.future().completeExceptionally(ModbusException.stackless(request.ipPort + " expired in queue"));
+                continue;
+            }
+            long nowMs = System.currentTimeMillis();
+            long delayMs = pacing.delayMs(nowMs, unit.inFlight);
+            if (delayMs < 0) {
+                // 等待在途请求响应后再发送
+                break;
+            }
+            if (delayMs > 0) {
+                if (!unit.drainScheduled) {
+                    unit.drainScheduled = true;
+                    ctx.executor().schedule(() -> {
+                        unit.drainScheduled = false;
+                        drain(ctx, unit);
+                    }, delayMs, TimeUnit.MILLISECONDS);
+                }
+                break;
+            }
+            unit.poll();
+            int tid = allocateTid();
+            if (tid < 0) {
+                request.future().completeExceptionally(ModbusException.stackless(request.ipPort + " too many requests in flight"));
+                continue;
+            }
+            unit.inFlight++;
+            pacing.onSend(nowMs);
+            request.sendNanos = System.nanoTime();
+            request.tid = tid;
+            request.deadline = nowMs + requestTimeoutMs;
+            slots[tid] = request;
+            timeoutQueue.add(request);
+            try {
+                write(ctx, request);
+            } catch (RuntimeException e) {
+                // 编码失败(如写入数据已被释放)时立即失败, 不占用事务编号等到超时
+                slots[tid] = null;
+                unit.inFlight--;
+                request.future().completeExceptionally(new ModbusException(request.ipPort + " encode request failed", e));
+                continue;
+            }
+            unit.metrics.onSend(request.sendNanos - request.enqueueNanos);
+            written = true;
+        }
+        unit.reportQueued();
+        if (written) {
+            ctx.flush();
+        }
+    }
+
+    private void complete(ChannelHandlerContext ctx, ModbusRequest request) {
+        if (request.breaker != null) {
+            request.breaker.onSuccess();
+        }
+        Unit unit = units[request.unitId];
+        unit.inFlight--;
+        unit.metrics.onResponse(System.nanoTime() - request.sendNanos);
+        unit.pacing.onComplete(System.currentTimeMillis());
+        drain(ctx, unit);
+    }
+
+    private void busy(ChannelHandlerContext ctx, ModbusRequest request) {
+        if (request.breaker != null) {
+            request.breaker.onSuccess();
+        }
+        Unit unit = units[request.unitId];
+        unit.inFlight--;
+        unit.metrics.onResponse(System.nanoTime() - request.sendNanos);
+        unit.pacing.onBusy(System.currentTimeMillis());
+        drain(ctx, unit);
+    }
+
+    private void timeout(ChannelHandlerContext ctx, ModbusRequest request) {
+        if (request.breaker != null) {
+            request.breaker.onFailure();
+        }
+        Unit unit = units[request.unitId];
+        unit.inFlight--;
+        unit.metrics.onTimeout();
+        unit.pacing.onTimeout(System.currentTimeMillis());
+        drain(ctx, unit);
+    }
+
+    /**
+     * 释放已取消请求的事务编号, 之后收到的响应按迟到响应处理. 尚未发送的请求在drain时跳过
+     */
+    private void cancel(ChannelHandlerContext ctx, ModbusRequest request) {
+        if (!inFlight(request)) {
+            return;
+        }
+        slots[request.tid] = null;
+        Unit unit = units[request.unitId];
+        unit.inFlight--;
+        unit.metrics.onCancel();
+        drain(ctx, unit);
+    }
+
+    /**
+     * 从上次分配的位置向后查找空闲的事务编号, 避免与仍在等待响应的请求冲突
+     *
+     * @return 空闲的事务编号, 全部占用时返回-1
+     */
+    private int allocateTid() {
+        for (int i = 0; i < slots.length; i++) {
+            int tid = nextTid;
+            nextTid = (nextTid + 1) & 0xFFFF;
+            if (slots[tid] == null) {
+                return tid;
+            }
+        }
+        return -1;
+    }
+
+    private boolean inFlight(ModbusRequest request) {
+        return slots[request.tid] == request;
+    }
+
+    /**
+     * 每个连接一个周期性超时检查, 而非每个请求一个定时任务. 多个codec共用一个通道时(如Modbus/UDP)由通道统一检查, 子类覆盖为空
+     */
+    void startSweep(ChannelHandlerContext ctx) {
+        if (sweepSchedule == null) {
+            long periodMs = sweepPeriodMs(requestTimeoutMs);
+            sweepSchedule = ctx.executor().scheduleAtFixedRate(() -> sweep(ctx), periodMs, periodMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static long sweepPeriodMs(int requestTimeoutMs) {
+        return Math.max(Math.min(requestTimeoutMs / 10, 100), 10);
+    }
+
+    /**
+     * 以超时失败结束已超过截止时间的在途请求
+     */
+    void sweep(ChannelHandlerContext ctx) {
+        long nowMs = System.currentTimeMillis();
+        ModbusRequest request;
+        while ((request = timeoutQueue.peek()) != null) {
+            if (!inFlight(request)) {
+                timeoutQueue.poll();
+                continue;
+            }
+            if (request.deadline > nowMs) {
                 return;
             }
-            request.future().completeExceptionally(new ModbusException(request.ipPort + " time out"));
-        }, requestTimeoutMs, TimeUnit.MILLISECONDS);
-        request.setTimeoutSchedule(schedule);
-        requestMap.put(tid, request);
+            timeoutQueue.poll();
+            slots[request.tid] = null;
+            timeout(ctx, request);
+            request.future().completeExceptionally(ModbusException.stackless(request.ipPort + " time out"));
+        }
+    }
 
-        if (request instanceof WriteRequest) {
-            WriteRequest w = (WriteRequest) request;
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        failAll();
+        super.channelInactive(ctx);
+    }
 
-            ModbusByteBuf payload = w.payload;
+    /**
+     * 没有排队及在途的请求时停止超时检查, 之后不可再使用
+     *
+     * @return 是否已停止
+     */
+    boolean stopIfIdle() {
+        for (Unit unit : units) {
+            if (unit != null && (unit.inFlight > 0 || unit.queued() > 0)) {
+                return false;
+            }
+        }
+        if (sweepSchedule != null) {
+            sweepSchedule.cancel(false);
+            sweepSchedule = null;
+        }
+        return true;
+    }
+
+    /**
+     * 通道关闭时以失败结束所有排队及在途的请求
+     */
+    void failAll() {
+        if (sweepSchedule != null) {
+            sweepSchedule.cancel(false);
+        }
+        // 连接断开时每个从站只计一次失败
+        CircuitBreaker[] failed = new CircuitBreaker[units.length];
+        ModbusRequest request;
+        while ((request = timeoutQueue.poll()) != null) {
+            if (inFlight(request)) {
+                slots[request.tid] = null;
+                failed[request.unitId] = request.breaker;
+                request.future().completeExceptionally(ModbusException.stackless(request.ipPort + " connection closed"));
+            }
+        }
+        for (Unit unit : units) {
+            if (unit == null) {
+                continue;
+            }
+            unit.metrics.onClose(unit.inFlight);
+            unit.inFlight = 0;
+            while ((request = unit.poll()) != null) {
+                failed[request.unitId] = request.breaker;
+                request.future().completeExceptionally(ModbusException.stackless(request.ipPort + " connection closed"));
+            }
+            unit.reportQueued();
+        }
+        for (CircuitBreaker breaker : failed) {
+            if (breaker != null) {
+                breaker.onFailure();
+            }
+        }
+    }
+
+    /**
+     * 编码并写出请求, 报文头直接写入池化缓冲区, 且不为每帧创建ChannelPromise, 稳定轮询时除响应外不产生垃圾
+     */
+    private void write(ChannelHandlerContext ctx, ModbusRequest request) {
+        int tid = request.tid;
+        if (request instanceof ReadRequest) {
+            ReadRequest r = (ReadRequest) request;
+            ByteBuf out = ctx.alloc().buffer(12);
+            out.writeShort(tid) // 事务编号
+                    .writeShort(0) // tcp协议编号
+                    .writeShort(6) // 剩余字节长度
+                    .writeByte(r.unitId) // slave编号
+                    .writeByte(r.functionCode) // 功能码
+                    .writeShort(r.address) // 起始地址
+                    .writeShort(r.count); // 读取数量
+            writeFrame(ctx, out);
+            return;
+        }
+        if (request instanceof ReadWriteRequest) {
+            ReadWriteRequest rw = (ReadWriteRequest) request;
+            ModbusByteBuf payload = rw.payload;
             payload.validate();
             payload.delegate().readerIndex(0);
             int dataByteSize = payload.readableBytes();
+            request.payloadSent = true;
 
-            ByteBuf out = ctx.alloc().buffer(13 + dataByteSize);
+            ByteBuf out = ctx.alloc().buffer(pooled ? 17 : 17 + dataByteSize);
             out.writeShort(tid) // 事务编号
                     .writeShort(0) // tcp协议编号
-                    .writeShort(7 + dataByteSize) // 剩余字节长度
-                    .writeBytes(new byte[]{0x01, 0x10}) // slave编号, 功能码
-                    .writeShort(w.address) // 起始寄存器地址
+                    .writeShort(11 + dataByteSize) // 剩余字节长度
+                    .writeByte(rw.unitId) // slave编号
+                    .writeByte(0x17) // 功能码
+                    .writeShort(rw.address) // 读取起始寄存器地址
+                    .writeShort(rw.count) // 读取寄存器数量
+                    .writeShort(rw.writeAddress) // 写入起始寄存器地址
                     .writeShort(dataByteSize / 2) // 写入寄存器数量
                     .writeByte(dataByteSize); // 写入字节长度
-            ByteBuf delegate = payload.delegate();
-            out.writeBytes(delegate);
-            ReferenceCountUtil.release(delegate);
-            ctx.writeAndFlush(out);
-        } else {
-            ReadRequest r = (ReadRequest) request;
+            write(ctx, out, payload.delegate());
+            return;
+        }
+        WriteRequest w = (WriteRequest) request;
+        ModbusByteBuf payload = w.payload;
+        payload.validate();
+        payload.delegate().readerIndex(0);
+        int dataByteSize = payload.readableBytes();
+        request.payloadSent = true;
+        if (w.functionCode == 5 || w.functionCode == 6) {
             ByteBuf out = ctx.alloc().buffer(12);
             out.writeShort(tid) // 事务编号
                     .writeShort(0) // tcp协议编号
                     .writeShort(6) // 剩余字节长度
-                    .writeBytes(new byte[]{0x01, 0x03}) // slave编号, 功能码
-                    .writeShort(r.address) // 起始寄存器地址
-                    .writeShort(r.count); // 读取长度
-            ctx.writeAndFlush(out);
+                    .writeByte(w.unitId) // slave编号
+                    .writeByte(w.functionCode) // 功能码
+                    .writeShort(w.address) // 地址
+                    .writeShort(payload.delegate().getUnsignedShort(0)); // 写入值
+            ReferenceCountUtil.release(payload.delegate());
+            writeFrame(ctx, out);
+            return;
         }
+
+        ByteBuf out = ctx.alloc().buffer(pooled ? 13 : 13 + dataByteSize);
+        out.writeShort(tid) // 事务编号
+                .writeShort(0) // tcp协议编号
+                .writeShort(7 + dataByteSize) // 剩余字节长度
+                .writeByte(w.unitId) // slave编号
+                .writeByte(w.functionCode) // 功能码
+                .writeShort(w.address) // 起始地址
+                .writeShort(w.functionCode == 15 ? w.count : dataByteSize / 2) // 写入线圈或寄存器数量
+                .writeByte(dataByteSize); // 写入字节长度
+        write(ctx, out, payload.delegate());
+    }
+
+    /**
+     * 写出报文头及数据, 数据发送后释放
+     */
+    private void write(ChannelHandlerContext ctx, ByteBuf header, ByteBuf data) {
+        if (pooled) {
+            // 报文头与数据组合发送, 数据由组合缓冲区在发送后释放
+            CompositeByteBuf composite = ctx.alloc().compositeBuffer(2).addComponents(true, header, data);
+            writeFrame(ctx, composite);
+            return;
+        }
+        header.writeBytes(data);
+        ReferenceCountUtil.release(data);
+        writeFrame(ctx, header);
+    }
+
+    /**
+     * 写出一个完整的请求帧
+     */
+    void writeFrame(ChannelHandlerContext ctx, ByteBuf frame) {
+        ctx.write(frame, ctx.voidPromise());
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         ByteBuf in = (ByteBuf) msg;
         try {
-            channelRead(in);
+            channelRead(ctx, in);
         } finally {
             ReferenceCountUtil.release(in);
         }
     }
 
     @SuppressWarnings("unchecked")
-    private void channelRead(ByteBuf in) {
+    private void channelRead(ChannelHandlerContext ctx, ByteBuf in) {
         int tid = in.readUnsignedShort();
-        in.skipBytes(5);
+        in.skipBytes(4);
+        int unitId = in.readUnsignedByte();
         byte b = in.readByte();
-        ModbusRequest request = requestMap.remove(tid);
+        ModbusRequest request = slots[tid];
         if (request == null) {
-            // 请求因超时被从requestMap中移除, 之后收到响应, 就会到达这里
+            // 请求因超时被从slots中移除, 之后收到响应, 就会到达这里
             log.trace("response missed request, maybe timeout before");
+            Unit unit = units[unitId];
+            if (unit != null) {
+                unit.metrics.onLateResponse();
+            }
             return;
         }
-        if (b == 3) {
-            in.skipBytes(1);
-            request.getTimeoutSchedule().cancel(false);
-            ModbusByteBuf buf = ModbusByteBuf.capacity(in.readableBytes()).add(in);
-            ((CompletableFuture<ModbusByteBuf>) request.future()).complete(buf);
-            return;
-        }
-        if (b == 16) {
-            /*int start = in.readUnsignedShort(); // 起始寄存器地址
-            short len = in.readShort(); // 写入字节数*/
-            request.getTimeoutSchedule().cancel(false);
+        slots[tid] = null;
+        if ((b & 0x80) == 0) {
+            complete(ctx, request);
+            if (b == 1 || b == 2 || b == 3 || b == 4 || b == 23) {
+                in.skipBytes(1); // 字节数
+                if (request.recorder != null) {
+                    request.recorder.append(request.breaker.endpoint, b, request.address, in, in.readerIndex(), in.readableBytes());
+                }
+                ModbusByteBuf buf = pooled ? ModbusByteBuf.wrap(in.retainedSlice())
+                        : ModbusByteBuf.capacity(in.readableBytes()).add(in);
+                if (!((CompletableFuture<ModbusByteBuf>) request.future()).complete(buf)) {
+                    // 已取消(如对冲读取的落败方)但取消任务尚未释放事务编号时响应先到达
+                    buf.release();
+                }
+                return;
+            }
+            // 写入类功能码(5, 6, 15, 16)响应为请求的回显, 无需解析
             request.future().complete(null);
             return;
         }
+        // 功能码最高位为1表示异常响应
         byte errCode = in.readByte();
+        units[request.unitId].metrics.onException(errCode & 0xFF);
+        if (errCode == 5 || errCode == 6) {
+            busy(ctx, request);
+        } else {
+            complete(ctx, request);
+        }
         String errMsg = ModbusException.describeExceptionCode(errCode);
-        request.getTimeoutSchedule().cancel(false);
-        request.future().completeExceptionally(new ModbusException(request.ipPort + ": device error, " + errMsg));
+        request.future().completeExceptionally(ModbusException.stackless(request.ipPort + ": device error, " + errMsg));
     }
 
+    private static final class Unit {
+        final PacingPolicy pacing;
+
+        final QueueLimit limit;
+
+        final EndpointMetrics metrics;
+
+        /**
+         * 等待发送的高优先级请求, 先于普通请求发送
+         */
+        final Deque<ModbusRequest> urgent = new ArrayDeque<>();
+
+        /**
+         * 等待发送的普通请求
+         */
+        final Deque<ModbusRequest> pending = new ArrayDeque<>();
+
+        /**
+         * 已发送但尚未收到响应的请求数量
+         */
+        int inFlight;
+
+        boolean drainScheduled;
+
+        /**
+         * 上次计入指标的排队数量
+         */
+        private int reportedQueued;
+
+        Unit(PacingPolicy pacing, QueueLimit limit, EndpointMetrics metrics) {
+            this.pacing = pacing;
+            this.limit = limit;
+            this.metrics = metrics;
+        }
+
+        int queued() {
+            return urgent.size() + pending.size();
+        }
+
+        /**
+         * 指标可能由同一设备的多个codec共用, 只累加本codec排队数量的变化
+         */
+        void reportQueued() {
+            int queued = queued();
+            if (queued != reportedQueued) {
+                metrics.onQueue(queued - reportedQueued);
+                reportedQueued = queued;
+            }
+        }
+
+        ModbusRequest peek() {
+            ModbusRequest request = urgent.peek();
+            return request != null ? request : pending.peek();
+        }
+
+        ModbusRequest poll() {
+            ModbusRequest request = urgent.poll();
+            return request != null ? request : pending.poll();
+        }
+    }
 }
@@ -0,0 +1,195 @@
+package bthulu.modbus.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.util.AttributeKey;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 到某个ip:port的连接, 同一网关后的多个从站共用
+ */
+final class ModbusConnection {
+    /**
+     * 通道所属的ModbusConnection
+     */
+    static final AttributeKey<ModbusConnection> KEY = AttributeKey.valueOf(ModbusConnection.class.getName());
+
+    final String ipPort;
+    final InetSocketAddress address;
+
+    private volatile ChannelFuture channel;
+    /**
+     * 对冲读取使用的第二个连接, 首次对冲时建立
+     */
+    private volatile ChannelFuture hedgeChannel;
+
+    private EventLoop eventLoop;
+
+    private final ConnectThrottle throttle;
+
+    final CircuitBreaker.Settings breakerSettings;
+
+    /**
+     * 使用Modbus/UDP时为共享的数据报通道, 否则为null
+     */
+    private final UdpChannels udp;
+
+    /**
+     * 保持连接的使用者数量, 大于0时空闲也不关闭主连接
+     */
+    private int keepAlive;
+
+    private final ModbusEndpoint[] endpoints = new ModbusEndpoint[256];
+
+    private volatile long connectAttempts;
+    private volatile long connectFailures;
+
+    ModbusConnection(String ipPort, ConnectThrottle throttle, CircuitBreaker.Settings breakerSettings, UdpChannels udp) {
+        this.ipPort = ipPort;
+        this.throttle = throttle;
+        this.breakerSettings = breakerSettings;
+        this.udp = udp;
+        String[] split = ipPort.split(":", 2);
+        this.address = new InetSocketAddress(split[0], Integer.parseInt(split[1]));
+    }
+
+    synchronized ModbusEndpoint endpoint(int unitId) {
+        if (unitId < 0 || unitId > 0xFF) {
+            throw new IllegalArgumentException("illegal unitId " + unitId);
+        }
+        ModbusEndpoint endpoint = endpoints[unitId];
+        if (endpoint == null) {
+            endpoint = endpoints[unitId] = new ModbusEndpoint(this, unitId);
+        }
+        return endpoint;
+    }
+
+    ChannelFuture channel(Bootstrap bootstrap) {
+        return channel(bootstrap, false);
+    }
+
+    ChannelFuture hedgeChannel(Bootstrap bootstrap) {
+        return channel(bootstrap, true);
+    }
+
+    private ChannelFuture channel(Bootstrap bootstrap, boolean hedge) {
+        if (udp != null) {
+            // udp无需建连, 对冲读取也通过同一通道发送
+            return udp.channel(eventLoop(bootstrap));
+        }
+        ChannelFuture f = hedge ? hedgeChannel : channel;
+        if (usable(f)) {
+            return f;
+        }
+        synchronized (this) {
+            f = hedge ? hedgeChannel : channel;
+            if (usable(f)) {
+                return f;
+            }
+            connectAttempts++;
+            ChannelPromise connect = connect(bootstrap);
+            connect.addListener(future -> {
+                if (!future.isSuccess()) {
+                    connectFailures++;
+                    // 每次建连失败对该地址下的每个从站只计一次失败, 而非每个等待中的请求各计一次
+                    for (ModbusEndpoint endpoint : endpoints()) {
+                        endpoint.breaker.onFailure();
+                    }
+                }
+            });
+            if (hedge) {
+                hedgeChannel = connect;
+            } else {
+                channel = connect;
+            }
+            // 连接关闭(包括连接失败)后清除, 下次读写时重新连接
+            connect.channel().closeFuture().addListener(future -> clear(connect));
+            return connect;
+        }
+    }
+
+    /**
+     * 先创建并注册通道, 取得建连名额后再发起连接, 排队期间不计入连接超时
+     */
+    private ChannelPromise connect(Bootstrap bootstrap) {
+        ChannelFuture register = bootstrap.clone(eventLoop(bootstrap)).register();
+        Channel ch = register.channel();
+        ch.attr(KEY).set(this);
+        ChannelPromise connect = ch.newPromise();
+        register.addListener(future -> {
+            if (!future.isSuccess()) {
+                connect.tryFailure(future.cause());
+                return;
+            }
+            throttle.acquire(() -> {
+                connect.addListener(f -> throttle.release());
+                // 总是提交到通道的EventLoop执行, 避免连接立即失败时release与acquire互相递归
+                ch.eventLoop().execute(() -> ch.connect(address, connect));
+            });
+        });
+        return connect;
+    }
+
+    synchronized void retain() {
+        keepAlive++;
+    }
+
+    synchronized void release() {
+        keepAlive--;
+    }
+
+    /**
+     * @return 该通道空闲时是否保持不关闭. 仅主连接保持, 对冲读取的连接空闲时照常关闭
+     */
+    synchronized boolean keepAlive(Channel ch) {
+        ChannelFuture f = channel;
+        return keepAlive > 0 && f != null && f.channel() == ch;
+    }
+
+    /**
+     * 到同一地址的所有连接固定在同一个EventLoop上, 对冲读取的两个连接更新同一份设备指标时仍只有一个写入线程
+     */
+    synchronized EventLoop eventLoop(Bootstrap bootstrap) {
+        if (eventLoop == null) {
+            eventLoop = bootstrap.config().group().next();
+        }
+        return eventLoop;
+    }
+
+    synchronized List<ModbusEndpoint> endpoints() {
+        List<ModbusEndpoint> list = new ArrayList<>();
+        for (ModbusEndpoint endpoint : endpoints) {
+            if (endpoint != null) {
+                list.add(endpoint);
+            }
+        }
+        return list;
+    }
+
+    long connectAttempts() {
+        return connectAttempts;
+    }
+
+    long connectFailures() {
+        return connectFailures;
+    }
+
+    private static boolean usable(ChannelFuture f) {
+        return f != null && (!f.isDone() || f.isSuccess() && f.channel().isActive());
+    }
+
+    private synchronized void clear(ChannelFuture f) {
+        if (channel == f) {
+            channel = null;
+        }
+        if (hedgeChannel == f) {
+            hedgeChannel = null;
+        }
+    }
+}
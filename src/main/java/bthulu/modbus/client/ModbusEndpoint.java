@@ -0,0 +1,77 @@
+package bthulu.modbus.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+
+import java.net.InetSocketAddress;
+
+/**
+ * 已解析的设备地址(ip:port及从站编号), 通过{@link ModbusMaster#endpoint(String, int)}获取.
+ * 同一ip:port下不同从站的endpoint共用一个连接, 如串口转TCP网关后的多个RTU从站.
+ * <p>
+ * 高频轮询时应持有此对象调用ModbusMaster的读写方法, 避免每次调用都解析ip:port字符串并查找连接.
+ */
+public final class ModbusEndpoint {
+    public final String ipPort;
+    public final InetSocketAddress address;
+    public final int unitId;
+
+    private final ModbusConnection connection;
+
+    final EndpointMetrics metrics;
+
+    final CircuitBreaker breaker;
+
+    ModbusEndpoint(ModbusConnection connection, int unitId) {
+        this.ipPort = connection.ipPort;
+        this.address = connection.address;
+        this.unitId = unitId;
+        this.connection = connection;
+        this.breaker = new CircuitBreaker(this, connection.breakerSettings);
+        this.metrics = new EndpointMetrics(toString(), connection, breaker);
+    }
+
+    public EndpointMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * 非阻塞的背压信号, 发送队列接近满时返回true, 调用方应暂缓提交普通优先级的请求
+     */
+    public boolean isSaturated() {
+        return metrics.isSaturated();
+    }
+
+    public CircuitBreaker circuitBreaker() {
+        return breaker;
+    }
+
+    ChannelFuture channel(Bootstrap bootstrap) {
+        return connection.channel(bootstrap);
+    }
+
+    ChannelFuture hedgeChannel(Bootstrap bootstrap) {
+        return connection.hedgeChannel(bootstrap);
+    }
+
+    EventLoop eventLoop(Bootstrap bootstrap) {
+        return connection.eventLoop(bootstrap);
+    }
+
+    /**
+     * 保持所在连接空闲时不关闭, 需与{@link #releaseConnection()}成对调用
+     */
+    void retainConnection() {
+        connection.retain();
+    }
+
+    void releaseConnection() {
+        connection.release();
+    }
+
+    @Override
+    public String toString() {
+        return unitId == 1 ? ipPort : ipPort + "#" + unitId;
+    }
+}
@@ -17,6 +17,20 @@ public class ModbusException extends RuntimeException {
         super(message, cause);
     }
 
+    /**
+     * @param writableStackTrace 为false时不填充调用栈
+     */
+    protected ModbusException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
+
+    /**
+     * 创建不填充调用栈的异常. 用于超时, 连接断开等在EventLoop中产生的异常, 其调用栈没有意义, 设备离线时大量产生又会消耗cpu
+     */
+    static ModbusException stackless(String message) {
+        return new ModbusException(message, false);
+    }
+
     private static final Map<Integer, String> slaveExceptionCodes;
     static {
         Map<Integer, String> map = new HashMap<>(15);
@@ -2,22 +2,34 @@ package bthulu.modbus.client;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.Closeable;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class ModbusMaster implements Closeable {
@@ -31,18 +43,23 @@ public class ModbusMaster implements Closeable {
     }
 
     public ModbusMaster(int requestTimeoutSec, int idleSec, int connectTimeoutSec) {
-        this(requestTimeoutSec, idleSec, connectTimeoutSec, new NioEventLoopGroup());
+        this(requestTimeoutSec, idleSec, connectTimeoutSec, Transport.auto().newGroup());
     }
 
-    public ModbusMaster(int requestTimeoutSec, int idleSec, int connectTimeoutSec, NioEventLoopGroup elg) {
+    /**
+     * @param elg NioEventLoopGroup或EpollEventLoopGroup, 通道类型根据其类型自动选择
+     */
+    public ModbusMaster(int requestTimeoutSec, int idleSec, int connectTimeoutSec, EventLoopGroup elg) {
         requestTimeoutMs = Math.max(requestTimeoutSec, 1) * 1000;
         int finalIdleSec = Math.max(idleSec, 10);
         int connectTimeoutMs = Math.max(connectTimeoutSec, 3) * 1000;
+        breakerSettings = new CircuitBreaker.Settings(requestTimeoutMs + connectTimeoutMs, this::probe);
         bootstrap = new Bootstrap();
-        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs).group(elg).channel(NioSocketChannel.class)
-                .handler(new ChannelInitializer<NioSocketChannel>() {
+        Transport.of(elg).apply(bootstrap);
+        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs).group(elg)
+                .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
-                    protected void initChannel(NioSocketChannel ch) {
+                    protected void initChannel(SocketChannel ch) {
                         ChannelPipeline pipeline = ch.pipeline();
                         // modbus连接无需保持重连, 空闲时间到了直接关闭就好
                         pipeline.addLast(new IdleStateHandler(0, 0, finalIdleSec, TimeUnit.SECONDS) {
@@ -56,33 +73,44 @@ public class ModbusMaster implements Closeable {
 
                             @Override
                             protected void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evt) {
+                                // 有轮询任务的连接空闲时也保持, 避免轮询周期较长时每次都重新建连
+                                ModbusConnection connection = ctx.channel().attr(ModbusConnection.KEY).get();
+                                if (connection != null && connection.keepAlive(ctx.channel())) {
+                                    return;
+                                }
                                 ctx.close();
                             }
 
-                            @Override
-                            public void channelUnregistered(ChannelHandlerContext ctx) {
-                                String key = genKey(remoteAddress);
-                                channelMap.remove(key);
-                            }
-
                             @Override
                             public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-                                String key = genKey(remoteAddress);
+                                // 连接关闭后ModbusEndpoint会自动清除该连接
                                 if (!(cause instanceof ModbusException)) {
-                                    channelMap.remove(key);
                                     ctx.close();
                                 }
-                                log.error(key, cause);
+                                log.error(String.valueOf(remoteAddress), cause);
                             }
                         })
                                 .addLast(new LengthFieldBasedFrameDecoder(264, 4, 2))
-                                .addLast(new ModbusCodec(requestTimeoutMs));
+                                .addLast(new ModbusCodec(requestTimeoutMs, ModbusMaster.this::createPacing, ModbusMaster.this::createQueueLimit, pooled));
                     }
                 });
+        Bootstrap udpBootstrap = new Bootstrap().group(elg)
+                // 大量设备的响应可能同时到达, 加大接收缓冲区避免丢包
+                .option(ChannelOption.SO_RCVBUF, 1 << 20)
+                .handler(new ChannelInitializer<DatagramChannel>() {
+                    @Override
+                    protected void initChannel(DatagramChannel ch) {
+                        ch.pipeline().addLast(new UdpModbusHandler(requestTimeoutMs, finalIdleSec * 1000L,
+                                ModbusMaster.this::createPacing, ModbusMaster.this::createQueueLimit, pooled));
+                    }
+                });
+        Transport.of(elg).configureDatagram(udpBootstrap);
+        udpChannels = new UdpChannels(udpBootstrap);
     }
 
     @Override
     public void close() {
+        unregisterMBeans();
         bootstrap.config().group().shutdownGracefully();
     }
 
@@ -90,109 +118,724 @@ public class ModbusMaster implements Closeable {
         return bootstrap.config().group();
     }
 
-    private final Map<String, ChannelFuture> channelMap = new ConcurrentHashMap<>();
+    /**
+     * @return 到该设备的连接所在的EventLoop
+     */
+    EventLoop eventLoop(ModbusEndpoint endpoint) {
+        return endpoint.eventLoop(bootstrap);
+    }
+
+    private final Map<String, ModbusConnection> connectionMap = new ConcurrentHashMap<>();
+
+    private final ConnectThrottle connectThrottle = new ConnectThrottle(256);
+
+    private final UdpChannels udpChannels;
+
+    private volatile boolean udp;
+
+    /**
+     * 之后新使用的设备改用Modbus/UDP通信, 已使用的设备不变.
+     * <p>
+     * 所有设备共用少量数据报通道(每个EventLoop一个), 无需建连, 也不占用每个设备的连接; 请求排队, 节奏控制, 超时, 重试, 熔断及返回的ModbusByteBuf与tcp相同.
+     * 响应按来源地址及事务编号匹配请求, 丢失的请求或响应按超时处理.
+     */
+    public void setUdp(boolean udp) {
+        this.udp = udp;
+    }
+
+    /**
+     * 设置同时进行中的建立连接数量上限, 默认256. 超出的建连排队等待, 排队时间不计入连接超时
+     */
+    public void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        connectThrottle.setMaxConcurrent(maxConcurrentConnects);
+    }
+
+    private final CircuitBreaker.Settings breakerSettings;
+
+    /**
+     * 设置设备熔断, 默认连续失败3次后熔断, 首次熔断1秒后探测, 之后每次探测失败退避时间加倍, 最长60秒
+     *
+     * @param failureThreshold 连续失败(建连失败, 请求超时, 连接断开)达到该次数时熔断, 小于等于0时关闭熔断
+     * @param openMs           熔断后首次探测的延迟
+     * @param maxOpenMs        探测退避时间上限
+     */
+    public void setCircuitBreaker(int failureThreshold, long openMs, long maxOpenMs) {
+        if (openMs <= 0 || maxOpenMs < openMs) {
+            throw new IllegalArgumentException("illegal openMs " + openMs + ", maxOpenMs " + maxOpenMs);
+        }
+        breakerSettings.openMs = openMs;
+        breakerSettings.maxOpenMs = maxOpenMs;
+        breakerSettings.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * 设置熔断器状态变化的监听, 在状态变化所在的线程(通常为EventLoop)中回调, 不可阻塞
+     */
+    public void setCircuitBreakerListener(BiConsumer<ModbusEndpoint, CircuitBreaker.State> listener) {
+        breakerSettings.listener = listener;
+    }
+
+    /**
+     * 熔断后在后台探测建连, 成功则转为半开状态放行试探请求, 失败则退避后再次探测
+     */
+    private void probe(CircuitBreaker breaker, long delayMs) {
+        ModbusEndpoint endpoint = breaker.endpoint;
+        try {
+            endpoint.eventLoop(bootstrap).schedule(() -> {
+                if (breaker.state() != CircuitBreaker.State.OPEN) {
+                    return;
+                }
+                endpoint.channel(bootstrap).addListener(future -> {
+                    if (future.isSuccess()) {
+                        breaker.halfOpen();
+                        return;
+                    }
+                    long nextDelayMs = breaker.backoff();
+                    if (nextDelayMs > 0) {
+                        probe(breaker, nextDelayMs);
+                    }
+                });
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // ModbusMaster已关闭
+        }
+    }
+
+    private static final long MAX_CONNECT_BACKOFF_MS = 30000;
+
+    /**
+     * 预先建立到指定设备的连接, 用于启动或网络恢复后的预热. 同时建连的数量受{@link #setMaxConcurrentConnects(int)}限制,
+     * 连接失败时按1s, 2s, 4s...(最长30s, 带随机抖动)退避后重试
+     *
+     * @param retries 每个设备最多重试次数
+     * @return 全部设备连接成功或重试用尽后完成, 结果为最终未能连接的设备
+     */
+    public CompletableFuture<List<ModbusEndpoint>> warmUp(Collection<ModbusEndpoint> endpoints, int retries) {
+        // 同一ip:port的从站共用连接, 只需连接一次
+        Map<String, ModbusEndpoint> distinct = new LinkedHashMap<>();
+        for (ModbusEndpoint endpoint : endpoints) {
+            distinct.putIfAbsent(endpoint.ipPort, endpoint);
+        }
+        List<ModbusEndpoint> list = new ArrayList<>(distinct.values());
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Boolean>[] futures = new CompletableFuture[list.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = new CompletableFuture<>();
+            connect(list.get(i), retries, 1000, futures[i]);
+        }
+        return CompletableFuture.allOf(futures).thenApply(v -> {
+            List<ModbusEndpoint> failed = new ArrayList<>();
+            for (int i = 0; i < futures.length; i++) {
+                if (!futures[i].join()) {
+                    failed.add(list.get(i));
+                }
+            }
+            return failed;
+        });
+    }
+
+    private void connect(ModbusEndpoint endpoint, int retries, long backoffMs, CompletableFuture<Boolean> f) {
+        endpoint.channel(bootstrap).addListener(future -> {
+            if (future.isSuccess()) {
+                f.complete(true);
+                return;
+            }
+            if (retries <= 0) {
+                f.complete(false);
+                return;
+            }
+            long delayMs = ThreadLocalRandom.current().nextLong(backoffMs / 2, backoffMs + 1);
+            group().schedule(() -> connect(endpoint, retries - 1, Math.min(backoffMs * 2, MAX_CONNECT_BACKOFF_MS), f),
+                    delayMs, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * 以调用方传入的原始ip:port字符串缓存从站编号为1的endpoint
+     */
+    private final Map<String, ModbusEndpoint> endpointMap = new ConcurrentHashMap<>();
+
+    private volatile boolean pooled;
+
+    /**
+     * 开启池化零拷贝模式, 仅对之后新建立的连接生效.
+     * <p>
+     * 开启后读取返回的ModbusByteBuf直接引用接收到的池化报文, 使用完毕后必须调用{@link ModbusByteBuf#release()}, 否则会造成内存泄漏;
+     * 写入数据建议通过{@link ModbusByteBuf#pooled(int)}创建, 发送时不再复制.
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    // 冠亿modbus设备处理能力有限, 连续不间断发送请求, 会导致部分请求返回设备繁忙.
+    // 因此默认将两次连续发送间隔一小段时间, 5ms的时间间隔能确保连续读取1000次, 设备繁忙率在千分之五以下
+    private volatile Supplier<PacingPolicy> defaultPacing = () -> PacingPolicy.fixedInterval(5);
+
+    private final Map<String, Supplier<PacingPolicy>> pacingMap = new ConcurrentHashMap<>();
+
+    /**
+     * 设置所有设备默认的发送节奏控制, 仅对之后新建立的连接生效
+     */
+    public void setPacing(Supplier<PacingPolicy> pacing) {
+        defaultPacing = pacing;
+    }
+
+    /**
+     * 设置单个设备的发送节奏控制, 仅对之后新建立的连接生效. 如处理能力强的设备可使用{@link PacingPolicy#pipeline(int)}
+     */
+    public void setPacing(String ipPort, Supplier<PacingPolicy> pacing) {
+        pacingMap.put(normalize(ipPort), pacing);
+    }
+
+    /**
+     * 设置网关后单个从站的发送节奏控制, 仅对之后新建立的连接生效. 未设置时使用该ip:port的设置
+     */
+    public void setPacing(String ipPort, int unitId, Supplier<PacingPolicy> pacing) {
+        pacingMap.put(normalize(ipPort) + "#" + unitId, pacing);
+    }
+
+    private PacingPolicy createPacing(SocketAddress remoteAddress, int unitId) {
+        InetSocketAddress a = (InetSocketAddress) remoteAddress;
+        String key = a.getHostString() + ":" + a.getPort();
+        Supplier<PacingPolicy> pacing = pacingMap.get(key + "#" + unitId);
+        if (pacing == null) {
+            pacing = pacingMap.get(key);
+        }
+        return (pacing == null ? defaultPacing : pacing).get();
+    }
+
+    /**
+     * 对冲读取至少需要的响应延迟样本数量, 样本不足时分位数不可靠, 不对冲
+     */
+    private static final int HEDGE_MIN_SAMPLES = 100;
+
+    private volatile double hedgePercentile;
+    private volatile long hedgeMinDelayMs;
+
+    /**
+     * 开启对冲读取. 读取请求(功能码1, 2, 3, 4)发出后, 超过该设备响应延迟的percentile分位数(且不小于minDelayMs)仍未完成时,
+     * 在到同一设备的第二个连接上再发送一次相同请求, 以先返回者为准, 另一个请求被取消并立即释放其事务编号.
+     * <p>
+     * 延迟取分位数, 因此只有约(100 - percentile)%的读取会重复发送. 设备需支持同时建立两个连接;
+     * 该设备的响应样本不足100个, 或延迟已超过请求超时时间时不对冲. 写入请求不会重复发送.
+     *
+     * @param percentile 0到100之间, 如95; 小于等于0时关闭对冲读取
+     */
+    public void setHedging(double percentile, long minDelayMs) {
+        if (percentile >= 100) {
+            throw new IllegalArgumentException("percentile must less than 100");
+        }
+        hedgeMinDelayMs = Math.max(minDelayMs, 0);
+        hedgePercentile = percentile;
+    }
+
+    /**
+     * @return 对冲延迟, 不对冲时返回-1
+     */
+    private long hedgeDelayMs(ModbusEndpoint endpoint) {
+        double percentile = hedgePercentile;
+        if (percentile <= 0) {
+            return -1;
+        }
+        LatencyHistogram latency = endpoint.metrics.responseLatency;
+        if (latency.count() < HEDGE_MIN_SAMPLES) {
+            return -1;
+        }
+        long delayMs = Math.max(TimeUnit.MICROSECONDS.toMillis(latency.percentileMicros(percentile)), hedgeMinDelayMs);
+        return delayMs < requestTimeoutMs ? delayMs : -1;
+    }
+
+    private volatile QueueLimit defaultQueueLimit = QueueLimit.unbounded();
+
+    private final Map<String, QueueLimit> queueLimitMap = new ConcurrentHashMap<>();
+
+    /**
+     * 设置所有设备默认的发送队列容量限制, 默认不限制. 仅对之后新建立的连接生效
+     */
+    public void setQueueLimit(QueueLimit queueLimit) {
+        defaultQueueLimit = queueLimit;
+    }
+
+    /**
+     * 设置单个设备的发送队列容量限制, 仅对之后新建立的连接生效
+     */
+    public void setQueueLimit(String ipPort, QueueLimit queueLimit) {
+        queueLimitMap.put(normalize(ipPort), queueLimit);
+    }
 
-    private String genKey(SocketAddress isa) {
-        InetSocketAddress a = (InetSocketAddress) isa;
-        return a.getAddress().getHostAddress() + ":" + a.getPort();
+    private QueueLimit createQueueLimit(SocketAddress remoteAddress) {
+        InetSocketAddress a = (InetSocketAddress) remoteAddress;
+        return queueLimitMap.getOrDefault(a.getHostString() + ":" + a.getPort(), defaultQueueLimit);
     }
 
-    private ChannelFuture getChannel(String ipPort) {
+    private static String normalize(String ipPort) {
         if (ipPort == null || ipPort.isEmpty()) {
             throw new IllegalArgumentException("ipPort is empty");
         }
-        String key = ipPort.contains(":") ? ipPort : ipPort + ":502";
-        return channelMap.computeIfAbsent(key, k -> {
-            String[] split = k.split(":", 2);
-            return bootstrap.connect(new InetSocketAddress(split[0], Integer.parseInt(split[1])));
-        });
+        return ipPort.contains(":") ? ipPort : ipPort + ":502";
     }
 
-    public CompletableFuture<Void> writeAsync(String ipPort, int address, ModbusByteBuf buf, int retries) {
-        if (retries <= 0) {
-            return writeAsync0(ipPort, address, buf);
+    /**
+     * 获取从站编号为1的设备地址句柄, 同一地址返回同一对象. 高频读写时应持有返回值调用ModbusEndpoint参数的重载方法
+     *
+     * @param ipPort ip:port, 省略端口时默认为502
+     */
+    public ModbusEndpoint endpoint(String ipPort) {
+        ModbusEndpoint endpoint = ipPort == null ? null : endpointMap.get(ipPort);
+        if (endpoint == null) {
+            endpoint = endpoint(ipPort, 1);
+            endpointMap.putIfAbsent(ipPort, endpoint);
         }
-        if (retries > 5) {
-            retries = 5;
+        return endpoint;
+    }
+
+    /**
+     * 获取设备地址句柄, 同一ip:port下的所有从站共用一个连接
+     *
+     * @param ipPort ip:port, 省略端口时默认为502
+     * @param unitId 从站编号
+     */
+    public ModbusEndpoint endpoint(String ipPort, int unitId) {
+        ModbusEndpoint endpoint = connectionMap.computeIfAbsent(normalize(ipPort), key -> new ModbusConnection(key, connectThrottle, breakerSettings, udp ? udpChannels : null)).endpoint(unitId);
+        if (jmxDomain != null) {
+            registerMBean(endpoint);
         }
-        CompletableFuture<Void> f = new CompletableFuture<>();
-        retry(() -> writeAsync0(ipPort, address, buf), f, retries);
-        return f;
+        return endpoint;
     }
 
-    public CompletableFuture<Void> writeAsync(String ipPort, int address, ModbusByteBuf buf) {
-        return writeAsync(ipPort, address, buf, 1);
+    /**
+     * @return 所有已使用设备的运行指标
+     */
+    public List<EndpointMetrics> metrics() {
+        List<EndpointMetrics> list = new ArrayList<>();
+        for (ModbusConnection connection : connectionMap.values()) {
+            for (ModbusEndpoint endpoint : connection.endpoints()) {
+                list.add(endpoint.metrics);
+            }
+        }
+        return list;
     }
 
-    private CompletableFuture<Void> writeAsync0(String ipPort, int address, ModbusByteBuf buf) {
-        buf.validate();
-        buf.delegate().readerIndex(0);
-        CompletableFuture<Void> f = new CompletableFuture<>();
-        getChannel(ipPort).addListener((ChannelFutureListener) future -> {
+    private volatile RegisterRecorder recorder;
+
+    /**
+     * 记录之后发出的所有读取请求的成功结果, 为null时停止记录. 关闭ModbusMaster时不关闭记录器
+     */
+    public void setRecorder(RegisterRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    private volatile String jmxDomain;
+
+    private final Map<ModbusEndpoint, ObjectName> mbeanMap = new ConcurrentHashMap<>();
+
+    /**
+     * 将所有设备的运行指标注册到JMX, 之后新使用的设备也会自动注册, 关闭ModbusMaster时注销
+     *
+     * @param domain ObjectName的域, 同一JVM中有多个ModbusMaster时需各不相同
+     */
+    public void registerMBeans(String domain) {
+        jmxDomain = domain;
+        for (ModbusConnection connection : connectionMap.values()) {
+            for (ModbusEndpoint endpoint : connection.endpoints()) {
+                registerMBean(endpoint);
+            }
+        }
+    }
+
+    private void registerMBean(ModbusEndpoint endpoint) {
+        if (mbeanMap.containsKey(endpoint)) {
+            return;
+        }
+        mbeanMap.computeIfAbsent(endpoint, e -> {
+            try {
+                ObjectName name = new ObjectName(jmxDomain + ":type=Endpoint,name=" + ObjectName.quote(e.toString()));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(e.metrics, name);
+                return name;
+            } catch (JMException ex) {
+                throw new ModbusException("register mbean failed: " + e, ex);
+            }
+        });
+    }
+
+    private void unregisterMBeans() {
+        for (ObjectName name : mbeanMap.values()) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                log.warn("unregister mbean failed: " + name, e);
+            }
+        }
+        mbeanMap.clear();
+    }
+
+    private <T> void send(ModbusEndpoint endpoint, ModbusRequest request, CompletableFuture<T> f) {
+        send(endpoint, request, f, false);
+    }
+
+    /**
+     * @param hedge 为true时通过对冲读取使用的第二个连接发送
+     */
+    private <T> void send(ModbusEndpoint endpoint, ModbusRequest request, CompletableFuture<T> f, boolean hedge) {
+        CircuitBreaker breaker = endpoint.breaker;
+        if (!breaker.allowRequest()) {
+            f.completeExceptionally(breaker.openException);
+            return;
+        }
+        request.breaker = breaker;
+        request.metrics = endpoint.metrics;
+        if (request instanceof ReadRequest) {
+            request.recorder = recorder;
+        }
+        ChannelFuture cf = hedge ? endpoint.hedgeChannel(bootstrap) : endpoint.channel(bootstrap);
+        if (cf.isSuccess()) {
+            cf.channel().writeAndFlush(request);
+            return;
+        }
+        cf.addListener((ChannelFutureListener) future -> {
             if (future.isSuccess()) {
-                future.channel().writeAndFlush(new WriteRequest(ipPort, address, f, buf));
+                future.channel().writeAndFlush(request);
                 return;
             }
             f.completeExceptionally(future.cause());
         });
-        return f;
+    }
+
+    public CompletableFuture<Void> writeAsync(String ipPort, int address, ModbusByteBuf buf, int retries) {
+        return writeAsync(endpoint(ipPort), address, buf, retries);
+    }
+
+    public CompletableFuture<Void> writeAsync(String ipPort, int address, ModbusByteBuf buf) {
+        return writeAsync(endpoint(ipPort), address, buf);
+    }
+
+    public CompletableFuture<Void> writeAsync(ModbusEndpoint endpoint, int address, ModbusByteBuf buf, int retries) {
+        buf.validate();
+        buf.delegate().readerIndex(0);
+        return execute(endpoint, retries, buf, (f, payload) -> new WriteRequest(endpoint.ipPort, endpoint.unitId, address, f, payload));
+    }
+
+    public CompletableFuture<Void> writeAsync(ModbusEndpoint endpoint, int address, ModbusByteBuf buf) {
+        return writeAsync(endpoint, address, buf, 1);
     }
 
     public CompletableFuture<ModbusByteBuf> readAsync(String ipPort, int address, int count, int retries) {
+        return readAsync(endpoint(ipPort), address, count, retries);
+    }
+
+    public CompletableFuture<ModbusByteBuf> readAsync(String ipPort, int address, int count) {
+        return readAsync(endpoint(ipPort), address, count);
+    }
+
+    public CompletableFuture<ModbusByteBuf> readAsync(ModbusEndpoint endpoint, int address, int count, int retries) {
         if (retries <= 0) {
-            return readAsync0(ipPort, address, count);
+            return readAsync0(endpoint, address, count);
         }
         if (retries > 5) {
             retries = 5;
         }
         CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
-        retry(() -> readAsync0(ipPort, address, count), f, retries);
+        retry(() -> readAsync0(endpoint, address, count), f, retries);
         return f;
     }
 
-    public CompletableFuture<ModbusByteBuf> readAsync(String ipPort, int address, int count) {
-        return readAsync(ipPort, address, count, 1);
+    public CompletableFuture<ModbusByteBuf> readAsync(ModbusEndpoint endpoint, int address, int count) {
+        return readAsync(endpoint, address, count, 1);
     }
 
-    private CompletableFuture<ModbusByteBuf> readAsync0(String ipPort, int address, int count) {
+    /**
+     * 按指定优先级读取, 如报警等紧急读取使用{@link Priority#HIGH}, 先于同一设备的常规轮询发送
+     */
+    public CompletableFuture<ModbusByteBuf> readAsync(ModbusEndpoint endpoint, int address, int count, Priority priority) {
         CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
-        getChannel(ipPort).addListener((ChannelFutureListener) future -> {
-            if (future.isSuccess()) {
-                future.channel().writeAndFlush(new ReadRequest(ipPort, address, f, count));
-                return;
-            }
-            f.completeExceptionally(future.cause());
+        retry(() -> readAsync0(endpoint, 3, address, count, priority), f, 1);
+        return f;
+    }
+
+    public CompletableFuture<ModbusByteBuf> readAsync(String ipPort, int address, int count, Priority priority) {
+        return readAsync(endpoint(ipPort), address, count, priority);
+    }
+
+    private CompletableFuture<ModbusByteBuf> readAsync0(ModbusEndpoint endpoint, int address, int count) {
+        return readAsync0(endpoint, 3, address, count, Priority.NORMAL);
+    }
+
+    private CompletableFuture<ModbusByteBuf> readAsync0(ModbusEndpoint endpoint, int functionCode, int address, int count, Priority priority) {
+        CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+        ReadRequest request = new ReadRequest(endpoint.ipPort, endpoint.unitId, functionCode, address, f, count);
+        request.priority = priority;
+        long delayMs = hedgeDelayMs(endpoint);
+        if (delayMs < 0) {
+            send(endpoint, request, f);
+            return f;
+        }
+        request.cancellable = true;
+        send(endpoint, request, f);
+        HedgedRead hedged = new HedgedRead(f);
+        hedged.start(endpoint.eventLoop(bootstrap), delayMs, () -> {
+            endpoint.metrics.onHedge();
+            CompletableFuture<ModbusByteBuf> backup = new CompletableFuture<>();
+            ReadRequest r = new ReadRequest(endpoint.ipPort, endpoint.unitId, functionCode, address, backup, count);
+            r.priority = priority;
+            r.cancellable = true;
+            send(endpoint, r, backup, true);
+            return backup;
         });
+        return hedged.result;
+    }
+
+    /**
+     * 发送请求, 失败时最多重试retries次
+     *
+     * @param factory 每次发送(包括重试)时根据future创建新的请求
+     */
+    private <T> CompletableFuture<T> execute(ModbusEndpoint endpoint, int retries, Function<CompletableFuture<T>, ModbusRequest> factory) {
+        Supplier<CompletableFuture<T>> supplier = () -> {
+            CompletableFuture<T> f = new CompletableFuture<>();
+            send(endpoint, factory.apply(f), f);
+            return f;
+        };
+        if (retries <= 0) {
+            return supplier.get();
+        }
+        CompletableFuture<T> f = new CompletableFuture<>();
+        retry(supplier, f, Math.min(retries, 5));
         return f;
     }
 
-    public ModbusByteBuf read(String ipPort, int address, int count) {
+    /**
+     * 发送带写入数据的请求, 失败时最多重试retries次.
+     * 发送后通道会释放写入数据, 因此每次发送使用buf的一个独立视图, 未交给通道的视图在该次请求结束后释放, 全部结束后释放buf本身
+     */
+    private <T> CompletableFuture<T> execute(ModbusEndpoint endpoint, int retries, ModbusByteBuf buf,
+                                             BiFunction<CompletableFuture<T>, ModbusByteBuf, ModbusRequest> factory) {
+        CompletableFuture<T> result = execute(endpoint, retries, f -> {
+            ModbusByteBuf payload = ModbusByteBuf.wrap(buf.delegate().retainedDuplicate());
+            ModbusRequest request = factory.apply(f, payload);
+            f.whenComplete((v, cause) -> {
+                if (!request.payloadSent) {
+                    payload.release();
+                }
+            });
+            return request;
+        });
+        result.whenComplete((v, cause) -> buf.release());
+        return result;
+    }
+
+    private CompletableFuture<ModbusByteBuf> readAsync(ModbusEndpoint endpoint, int functionCode, int address, int count, int maxCount) {
+        if (count <= 0 || count > maxCount) {
+            throw new ModbusException("count must between 1 and " + maxCount);
+        }
+        CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+        retry(() -> readAsync0(endpoint, functionCode, address, count, Priority.NORMAL), f, 1);
+        return f;
+    }
+
+    /**
+     * 读线圈(功能码1), 结果通过{@link ModbusByteBuf#readCoils(int)}读取
+     */
+    public CompletableFuture<ModbusByteBuf> readCoilsAsync(ModbusEndpoint endpoint, int address, int count) {
+        return readAsync(endpoint, 1, address, count, 2000);
+    }
+
+    public CompletableFuture<ModbusByteBuf> readCoilsAsync(String ipPort, int address, int count) {
+        return readCoilsAsync(endpoint(ipPort), address, count);
+    }
+
+    /**
+     * 读离散输入(功能码2), 结果通过{@link ModbusByteBuf#readCoils(int)}读取
+     */
+    public CompletableFuture<ModbusByteBuf> readDiscreteInputsAsync(ModbusEndpoint endpoint, int address, int count) {
+        return readAsync(endpoint, 2, address, count, 2000);
+    }
+
+    public CompletableFuture<ModbusByteBuf> readDiscreteInputsAsync(String ipPort, int address, int count) {
+        return readDiscreteInputsAsync(endpoint(ipPort), address, count);
+    }
+
+    /**
+     * 读输入寄存器(功能码4)
+     */
+    public CompletableFuture<ModbusByteBuf> readInputRegistersAsync(ModbusEndpoint endpoint, int address, int count) {
+        return readAsync(endpoint, 4, address, count, 125);
+    }
+
+    public CompletableFuture<ModbusByteBuf> readInputRegistersAsync(String ipPort, int address, int count) {
+        return readInputRegistersAsync(endpoint(ipPort), address, count);
+    }
+
+    /**
+     * 写单个线圈(功能码5)
+     */
+    public CompletableFuture<Void> writeCoilAsync(ModbusEndpoint endpoint, int address, boolean value) {
+        return execute(endpoint, 1, f -> new WriteRequest(endpoint.ipPort, endpoint.unitId, 5, address, f,
+                ModbusByteBuf.capacity(2).addShort(value ? 0xFF00 : 0x0000), 1));
+    }
+
+    public CompletableFuture<Void> writeCoilAsync(String ipPort, int address, boolean value) {
+        return writeCoilAsync(endpoint(ipPort), address, value);
+    }
+
+    /**
+     * 写单个寄存器(功能码6)
+     */
+    public CompletableFuture<Void> writeRegisterAsync(ModbusEndpoint endpoint, int address, int value) {
+        return execute(endpoint, 1, f -> new WriteRequest(endpoint.ipPort, endpoint.unitId, 6, address, f,
+                ModbusByteBuf.capacity(2).addShort(value), 1));
+    }
+
+    public CompletableFuture<Void> writeRegisterAsync(String ipPort, int address, int value) {
+        return writeRegisterAsync(endpoint(ipPort), address, value);
+    }
+
+    /**
+     * 写多个线圈(功能码15)
+     */
+    public CompletableFuture<Void> writeCoilsAsync(ModbusEndpoint endpoint, int address, boolean[] values) {
+        if (values.length == 0 || values.length > 1968) {
+            throw new ModbusException("coils count must between 1 and 1968");
+        }
+        byte[] bytes = new byte[(values.length + 7) / 8];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i]) {
+                bytes[i >> 3] |= 1 << (i & 7);
+            }
+        }
+        return execute(endpoint, 1, f -> {
+            ModbusByteBuf payload = ModbusByteBuf.capacity(bytes.length);
+            payload.delegate().writeBytes(bytes);
+            return new WriteRequest(endpoint.ipPort, endpoint.unitId, 15, address, f, payload, values.length);
+        });
+    }
+
+    public CompletableFuture<Void> writeCoilsAsync(String ipPort, int address, boolean[] values) {
+        return writeCoilsAsync(endpoint(ipPort), address, values);
+    }
+
+    /**
+     * 在一个请求内先写入后读取多个寄存器(功能码23), 适合写入后回读校验, 比分别写入和读取少一次往返
+     *
+     * @param readAddress  读取起始寄存器地址
+     * @param readCount    读取寄存器数量, 最多125个
+     * @param writeAddress 写入起始寄存器地址
+     * @param buf          写入数据, 最多121个寄存器
+     */
+    public CompletableFuture<ModbusByteBuf> readWriteAsync(ModbusEndpoint endpoint, int readAddress, int readCount, int writeAddress, ModbusByteBuf buf) {
+        if (readCount <= 0 || readCount > 125) {
+            throw new ModbusException("read count must between 1 and 125");
+        }
+        if (buf.readableBytes() == 0 || buf.readableBytes() > 242) {
+            throw new ModbusException("write count must between 1 and 121");
+        }
+        return execute(endpoint, 1, buf, (f, payload) -> new ReadWriteRequest(endpoint.ipPort, endpoint.unitId, readAddress, readCount, writeAddress, payload, f));
+    }
+
+    public CompletableFuture<ModbusByteBuf> readWriteAsync(String ipPort, int readAddress, int readCount, int writeAddress, ModbusByteBuf buf) {
+        return readWriteAsync(endpoint(ipPort), readAddress, readCount, writeAddress, buf);
+    }
+
+    public ModbusByteBuf readWrite(String ipPort, int readAddress, int readCount, int writeAddress, ModbusByteBuf buf) {
         try {
-            return readAsync0(ipPort, address, count).get();
+            return readWriteAsync(ipPort, readAddress, readCount, writeAddress, buf).get();
         } catch (InterruptedException | ExecutionException e) {
             throw new ModbusException(e);
         }
     }
 
-    public ModbusByteBuf read(String ipPort, int address, int count, int retries) {
+    public CompletableFuture<List<ModbusByteBuf>> readAsync(String ipPort, ReadBatch batch, int retries) {
+        return readAsync(endpoint(ipPort), batch, retries);
+    }
+
+    public CompletableFuture<List<ModbusByteBuf>> readAsync(String ipPort, ReadBatch batch) {
+        return readAsync(endpoint(ipPort), batch, 1);
+    }
+
+    /**
+     * 批量读取, 返回结果与batch中添加区间的顺序一一对应. 各结果共享同一响应报文, 池化模式下需逐个release
+     */
+    public CompletableFuture<List<ModbusByteBuf>> readAsync(ModbusEndpoint endpoint, ReadBatch batch, int retries) {
+        List<ReadBatch.Block> plan = batch.plan();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<ModbusByteBuf>[] futures = new CompletableFuture[plan.size()];
+        for (int i = 0; i < futures.length; i++) {
+            ReadBatch.Block block = plan.get(i);
+            futures[i] = readAsync(endpoint, block.address, block.count, retries);
+        }
+        return batch.split(plan, futures);
+    }
+
+    public CompletableFuture<List<ModbusByteBuf>> readAsync(ModbusEndpoint endpoint, ReadBatch batch) {
+        return readAsync(endpoint, batch, 1);
+    }
+
+    public List<ModbusByteBuf> read(String ipPort, ReadBatch batch) {
+        return read(endpoint(ipPort), batch);
+    }
+
+    public List<ModbusByteBuf> read(String ipPort, ReadBatch batch, int retries) {
+        return read(endpoint(ipPort), batch, retries);
+    }
+
+    public List<ModbusByteBuf> read(ModbusEndpoint endpoint, ReadBatch batch) {
         try {
-            return readAsync(ipPort, address, count, retries).get();
+            return readAsync(endpoint, batch).get();
         } catch (InterruptedException | ExecutionException e) {
             throw new ModbusException(e);
         }
     }
 
-    public void write(String ipPort, int address, ModbusByteBuf data) {
+    public List<ModbusByteBuf> read(ModbusEndpoint endpoint, ReadBatch batch, int retries) {
         try {
-            writeAsync(ipPort, address, data).get();
+            return readAsync(endpoint, batch, retries).get();
         } catch (InterruptedException | ExecutionException e) {
             throw new ModbusException(e);
         }
     }
 
+    public ModbusByteBuf read(String ipPort, int address, int count) {
+        return read(endpoint(ipPort), address, count);
+    }
+
+    public ModbusByteBuf read(String ipPort, int address, int count, int retries) {
+        return read(endpoint(ipPort), address, count, retries);
+    }
+
+    public void write(String ipPort, int address, ModbusByteBuf data) {
+        write(endpoint(ipPort), address, data);
+    }
+
     public void write(String ipPort, int address, ModbusByteBuf data, int retries) {
+        write(endpoint(ipPort), address, data, retries);
+    }
+
+    public ModbusByteBuf read(ModbusEndpoint endpoint, int address, int count) {
+        try {
+            return readAsync0(endpoint, address, count).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new ModbusException(e);
+        }
+    }
+
+    public ModbusByteBuf read(ModbusEndpoint endpoint, int address, int count, int retries) {
+        try {
+            return readAsync(endpoint, address, count, retries).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new ModbusException(e);
+        }
+    }
+
+    public void write(ModbusEndpoint endpoint, int address, ModbusByteBuf data) {
+        try {
+            writeAsync(endpoint, address, data).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new ModbusException(e);
+        }
+    }
+
+    public void write(ModbusEndpoint endpoint, int address, ModbusByteBuf data, int retries) {
         try {
-            writeAsync(ipPort, address, data, retries).get();
+            writeAsync(endpoint, address, data, retries).get();
         } catch (InterruptedException | ExecutionException e) {
             throw new ModbusException(e);
         }
@@ -208,8 +851,9 @@ public class ModbusMaster implements Closeable {
                 future.complete(buf);
                 return;
             }
-            // 连接超时异常不重试
-            if (cause instanceof ConnectTimeoutException) {
+            // 连接超时, 熔断及队列已满不重试
+            if (cause instanceof ConnectTimeoutException || cause instanceof CircuitOpenException
+                    || cause instanceof RejectedRequestException) {
                 future.completeExceptionally(cause);
                 return;
             }
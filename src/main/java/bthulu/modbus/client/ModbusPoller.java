@@ -0,0 +1,147 @@
+package bthulu.modbus.client;
+
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 周期轮询调度, 在设备连接所在的EventLoop上按扫描组定时批量读取, 无需为每台设备创建线程, 也不必跨线程提交请求.
+ * <p>
+ * 每个扫描组首次执行时间在一个周期内随机错开, 避免大量设备同时发起请求;
+ * 上一次扫描未完成时跳过本次扫描并记为超期, 不会无限堆积请求.
+ * 有扫描组的设备连接空闲时不会被关闭, 轮询周期长于空闲时间时也无需每次重新建连.
+ */
+public class ModbusPoller implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ModbusPoller.class);
+
+    private final ModbusMaster master;
+
+    private final Set<ScanGroup> groups = ConcurrentHashMap.newKeySet();
+
+    public ModbusPoller(ModbusMaster master) {
+        this.master = master;
+    }
+
+    public ScanGroup add(String ipPort, ReadBatch batch, long periodMs, BiConsumer<List<ModbusByteBuf>, Throwable> listener) {
+        return add(master.endpoint(ipPort), batch, periodMs, listener);
+    }
+
+    /**
+     * 添加扫描组
+     *
+     * @param listener 每次扫描完成后回调, 成功时第二个参数为null, 失败时第一个参数为null. 在EventLoop线程中执行, 不可阻塞
+     */
+    public ScanGroup add(ModbusEndpoint endpoint, ReadBatch batch, long periodMs, BiConsumer<List<ModbusByteBuf>, Throwable> listener) {
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("periodMs must be positive");
+        }
+        ScanGroup group = new ScanGroup(endpoint, batch, periodMs, listener);
+        endpoint.retainConnection();
+        long initialDelayMs = ThreadLocalRandom.current().nextLong(periodMs);
+        group.schedule = master.eventLoop(endpoint).scheduleAtFixedRate(group::scan, initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+        groups.add(group);
+        return group;
+    }
+
+    /**
+     * 停止所有扫描组
+     */
+    @Override
+    public void close() {
+        for (ScanGroup group : groups) {
+            group.cancel();
+        }
+    }
+
+    public final class ScanGroup {
+        public final ModbusEndpoint endpoint;
+        public final ReadBatch batch;
+        public final long periodMs;
+        private final BiConsumer<List<ModbusByteBuf>, Throwable> listener;
+
+        private ScheduledFuture<?> schedule;
+        private final AtomicBoolean scanning = new AtomicBoolean();
+
+        // 完成回调可能在调用线程(如熔断时)或EventLoop中执行, 计数需线程安全
+        private final LongAdder cycles = new LongAdder();
+        private final LongAdder overruns = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private volatile long lastLatencyNanos;
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        private ScanGroup(ModbusEndpoint endpoint, ReadBatch batch, long periodMs, BiConsumer<List<ModbusByteBuf>, Throwable> listener) {
+            this.endpoint = endpoint;
+            this.batch = batch;
+            this.periodMs = periodMs;
+            this.listener = listener;
+        }
+
+        private void scan() {
+            if (!scanning.compareAndSet(false, true)) {
+                // 上一次扫描尚未完成, 跳过本周期
+                overruns.increment();
+                return;
+            }
+            long start = System.nanoTime();
+            master.readAsync(endpoint, batch).whenComplete((results, cause) -> {
+                long latency = System.nanoTime() - start;
+                lastLatencyNanos = latency;
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                cycles.increment();
+                if (cause != null) {
+                    failures.increment();
+                }
+                scanning.set(false);
+                try {
+                    listener.accept(results, cause);
+                } catch (Exception e) {
+                    log.error(endpoint.ipPort, e);
+                }
+            });
+        }
+
+        public void cancel() {
+            schedule.cancel(false);
+            if (groups.remove(this)) {
+                endpoint.releaseConnection();
+            }
+        }
+
+        /**
+         * @return 已完成的扫描次数
+         */
+        public long cycles() {
+            return cycles.sum();
+        }
+
+        /**
+         * @return 因上一次扫描未完成而跳过的次数
+         */
+        public long overruns() {
+            return overruns.sum();
+        }
+
+        public long failures() {
+            return failures.sum();
+        }
+
+        public long lastLatencyMs() {
+            return TimeUnit.NANOSECONDS.toMillis(lastLatencyNanos);
+        }
+
+        public long maxLatencyMs() {
+            return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+        }
+    }
+}
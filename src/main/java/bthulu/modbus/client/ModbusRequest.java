@@ -1,26 +1,58 @@
 package bthulu.modbus.client;
 
-import io.netty.util.concurrent.ScheduledFuture;
-
 import java.util.concurrent.CompletableFuture;
 
 public abstract class ModbusRequest {
     public final String ipPort;
+    public final int unitId;
     public final int address;
-    private ScheduledFuture<?> timeoutSchedule;
+    /**
+     * 事务编号, 发送时分配
+     */
+    int tid;
+    /**
+     * 超时时间点
+     */
+    long deadline;
+    /**
+     * 进入发送队列及实际发送的时间, 用于统计延迟
+     */
+    long enqueueNanos;
+    long sendNanos;
+    EndpointMetrics metrics;
+    /**
+     * 为true时, future被取消后立即释放该请求占用的事务编号及发送窗口, 如对冲读取中落败的请求
+     */
+    boolean cancellable;
+    /**
+     * 所属设备的熔断器, 收到响应或失败时回报结果. 不经ModbusMaster直接发送的请求为null
+     */
+    CircuitBreaker breaker;
+    /**
+     * 写入请求默认为高优先级
+     */
+    Priority priority = Priority.NORMAL;
+    /**
+     * 读取成功时记录结果, 未启用记录时为null
+     */
+    RegisterRecorder recorder;
+    /**
+     * 写入数据已交给通道发送, 由通道负责释放
+     */
+    boolean payloadSent;
 
     public ModbusRequest(String ipPort, int address) {
+        this(ipPort, 1, address);
+    }
+
+    public ModbusRequest(String ipPort, int unitId, int address) {
+        if (unitId < 0 || unitId > 0xFF) {
+            throw new IllegalArgumentException("illegal unitId " + unitId);
+        }
         this.ipPort = ipPort;
+        this.unitId = unitId;
         this.address = address;
     }
 
     public abstract CompletableFuture<?> future();
-
-    public ScheduledFuture<?> getTimeoutSchedule() {
-        return timeoutSchedule;
-    }
-
-    public void setTimeoutSchedule(ScheduledFuture<?> timeoutSchedule) {
-        this.timeoutSchedule = timeoutSchedule;
-    }
 }
@@ -2,6 +2,7 @@ package bthulu.modbus.client;
 
 import io.netty.channel.EventLoopGroup;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -50,6 +51,14 @@ public abstract class ModbusUtil {
         return master().readAsync(ipPort, address, count, retries);
     }
 
+    public static List<ModbusByteBuf> read(String ipPort, ReadBatch batch) {
+        return master().read(ipPort, batch);
+    }
+
+    public static CompletableFuture<List<ModbusByteBuf>> readAsync(String ipPort, ReadBatch batch) {
+        return master().readAsync(ipPort, batch);
+    }
+
     public static void write(String ipPort, int address, ModbusByteBuf data) {
         master().write(ipPort, address, data);
     }
@@ -74,6 +83,38 @@ public abstract class ModbusUtil {
         return master().writeAsync(ipPort, address, buf, retries);
     }
 
+    public static ModbusEndpoint endpoint(String ipPort) {
+        return master().endpoint(ipPort);
+    }
+
+    public static ModbusEndpoint endpoint(String ipPort, int unitId) {
+        return master().endpoint(ipPort, unitId);
+    }
+
+    public static ModbusByteBuf read(ModbusEndpoint endpoint, int address, int count) {
+        return master().read(endpoint, address, count);
+    }
+
+    public static CompletableFuture<ModbusByteBuf> readAsync(ModbusEndpoint endpoint, int address, int count) {
+        return master().readAsync(endpoint, address, count);
+    }
+
+    public static List<ModbusByteBuf> read(ModbusEndpoint endpoint, ReadBatch batch) {
+        return master().read(endpoint, batch);
+    }
+
+    public static CompletableFuture<List<ModbusByteBuf>> readAsync(ModbusEndpoint endpoint, ReadBatch batch) {
+        return master().readAsync(endpoint, batch);
+    }
+
+    public static void write(ModbusEndpoint endpoint, int address, ModbusByteBuf data) {
+        master().write(endpoint, address, data);
+    }
+
+    public static CompletableFuture<Void> writeAsync(ModbusEndpoint endpoint, int address, ModbusByteBuf buf) {
+        return master().writeAsync(endpoint, address, buf);
+    }
+
     public static synchronized void close() {
         if (master != null) {
             master.close();
@@ -0,0 +1,63 @@
+package bthulu.modbus.client;
+
+/**
+ * 单个连接的请求发送节奏控制. 每个连接持有独立实例, 所有方法均在连接所在的EventLoop线程中调用, 无需考虑并发.
+ */
+public interface PacingPolicy {
+    /**
+     * 判断队首请求当前能否发送
+     *
+     * @param nowMs    当前时间
+     * @param inFlight 已发送但尚未收到响应的请求数量
+     * @return 0表示立即发送; 大于0表示还需等待的毫秒数; 小于0表示需等待在途请求响应后再判断
+     */
+    long delayMs(long nowMs, int inFlight);
+
+    /**
+     * 请求已发送
+     */
+    void onSend(long nowMs);
+
+    /**
+     * 收到设备正常响应, 或除繁忙外的其它异常响应
+     */
+    default void onComplete(long nowMs) {
+    }
+
+    /**
+     * 设备返回繁忙(异常码6 Slave Device Busy)或确认(异常码5 Acknowledge)
+     */
+    default void onBusy(long nowMs) {
+    }
+
+    /**
+     * 请求超时未收到响应
+     */
+    default void onTimeout(long nowMs) {
+    }
+
+    /**
+     * 两次发送间隔固定时间, 不限制在途请求数量. 适合处理能力有限的设备
+     */
+    static PacingPolicy fixedInterval(int intervalMs) {
+        return new FixedIntervalPacing(intervalMs);
+    }
+
+    /**
+     * 不限制发送间隔, 在途请求达到maxInFlight后, 收到响应才发送下一个请求
+     */
+    static PacingPolicy pipeline(int maxInFlight) {
+        return new PipelinePacing(maxInFlight);
+    }
+
+    /**
+     * 根据设备反馈自动调整发送间隔与在途请求数量, 使每台设备稳定在其可承受的最大吞吐
+     *
+     * @param minIntervalMs 最小发送间隔
+     * @param maxIntervalMs 最大发送间隔
+     * @param maxInFlight   最大在途请求数量
+     */
+    static PacingPolicy adaptive(int minIntervalMs, int maxIntervalMs, int maxInFlight) {
+        return new AdaptivePacing(minIntervalMs, maxIntervalMs, maxInFlight);
+    }
+}
@@ -0,0 +1,21 @@
+package bthulu.modbus.client;
+
+public class PipelinePacing implements PacingPolicy {
+    private final int maxInFlight;
+
+    public PipelinePacing(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public long delayMs(long nowMs, int inFlight) {
+        return inFlight < maxInFlight ? 0 : -1;
+    }
+
+    @Override
+    public void onSend(long nowMs) {
+    }
+}
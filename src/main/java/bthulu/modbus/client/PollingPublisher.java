@@ -0,0 +1,252 @@
+package bthulu.modbus.client;
+
+import io.netty.channel.EventLoop;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按订阅方需求持续读取同一设备同一寄存器区间的Reactive Streams发布者.
+ * <p>
+ * 所有订阅方共用一个读取: 至少有一个订阅方有未满足的需求时才发起读取, 两次读取间隔不小于minIntervalMs, 无需求时不发送任何请求.
+ * 读取结果发给有需求的订阅方; 没有需求的订阅方只保留最新一次结果, 再次request时收到该结果, 旧结果直接丢弃(合并).
+ * 读取失败不终止订阅, 在下一个间隔重试. 调用{@link #close()}后所有订阅方收到onComplete.
+ * <p>
+ * 每个订阅方收到的ModbusByteBuf都是独立的读取视图, 池化模式下使用完毕后需release.
+ * 所有回调都在该设备连接所在的EventLoop中执行, 不可阻塞.
+ */
+public class PollingPublisher implements Publisher<ModbusByteBuf>, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(PollingPublisher.class);
+
+    /**
+     * 读取失败后至少等待的时间, 避免对离线或熔断的设备空转
+     */
+    private static final long FAILURE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ModbusMaster master;
+    private final ModbusEndpoint endpoint;
+    private final int address;
+    private final int count;
+    private final long minIntervalNanos;
+    private final EventLoop executor;
+
+    // 以下状态只在executor中访问
+    private final List<PollingSubscription> subscriptions = new ArrayList<>();
+    private boolean reading;
+    private boolean scheduled;
+    private boolean closed;
+    private long lastReadNanos;
+
+    private volatile long reads;
+    private volatile long failures;
+
+    public PollingPublisher(ModbusMaster master, String ipPort, int address, int count, long minIntervalMs) {
+        this(master, master.endpoint(ipPort), address, count, minIntervalMs);
+    }
+
+    public PollingPublisher(ModbusMaster master, ModbusEndpoint endpoint, int address, int count, long minIntervalMs) {
+        if (minIntervalMs < 0) {
+            throw new IllegalArgumentException("minIntervalMs is negative");
+        }
+        this.master = master;
+        this.endpoint = endpoint;
+        this.address = address;
+        this.count = count;
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMs);
+        this.executor = master.eventLoop(endpoint);
+        this.lastReadNanos = System.nanoTime() - minIntervalNanos;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ModbusByteBuf> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        executor.execute(() -> {
+            PollingSubscription subscription = new PollingSubscription(subscriber);
+            if (!closed) {
+                subscriptions.add(subscription);
+            }
+            subscriber.onSubscribe(subscription);
+            if (closed) {
+                subscription.cancelled = true;
+                subscriber.onComplete();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.execute(() -> {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (PollingSubscription subscription : new ArrayList<>(subscriptions)) {
+                subscription.release();
+                subscription.cancelled = true;
+                subscription.subscriber.onComplete();
+            }
+            subscriptions.clear();
+        });
+    }
+
+    /**
+     * @return 已发起的读取次数
+     */
+    public long reads() {
+        return reads;
+    }
+
+    public long failures() {
+        return failures;
+    }
+
+    private void poll() {
+        if (closed || reading || scheduled || !hasDemand()) {
+            return;
+        }
+        long waitNanos = minIntervalNanos - (System.nanoTime() - lastReadNanos);
+        if (waitNanos > 0) {
+            schedulePoll(waitNanos);
+            return;
+        }
+        reading = true;
+        lastReadNanos = System.nanoTime();
+        reads++;
+        master.readAsync(endpoint, address, count).whenComplete((buf, cause) -> {
+            if (executor.inEventLoop()) {
+                onRead(buf, cause);
+            } else {
+                executor.execute(() -> onRead(buf, cause));
+            }
+        });
+    }
+
+    private void schedulePoll(long delayNanos) {
+        scheduled = true;
+        executor.schedule(() -> {
+            scheduled = false;
+            poll();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private boolean hasDemand() {
+        for (PollingSubscription subscription : subscriptions) {
+            if (subscription.demand > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onRead(ModbusByteBuf buf, Throwable cause) {
+        reading = false;
+        if (cause != null) {
+            failures++;
+            log.debug(endpoint.toString(), cause);
+            if (!closed && !scheduled) {
+                schedulePoll(Math.max(minIntervalNanos, FAILURE_DELAY_NANOS));
+            }
+            return;
+        }
+        if (closed) {
+            buf.release();
+            return;
+        }
+        // 回调中可能取消订阅, 遍历副本
+        for (PollingSubscription subscription : subscriptions.toArray(new PollingSubscription[0])) {
+            if (subscription.cancelled) {
+                continue;
+            }
+            ModbusByteBuf view = ModbusByteBuf.wrap(buf.delegate().retainedDuplicate());
+            if (subscription.demand > 0) {
+                subscription.emit(view);
+            } else {
+                // 订阅方处理不过来, 只保留最新结果
+                subscription.release();
+                subscription.latest = view;
+            }
+        }
+        buf.release();
+        poll();
+    }
+
+    private final class PollingSubscription implements Subscription {
+        final Subscriber<? super ModbusByteBuf> subscriber;
+        long demand;
+        ModbusByteBuf latest;
+        boolean cancelled;
+
+        PollingSubscription(Subscriber<? super ModbusByteBuf> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            executor.execute(() -> {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    cancel0();
+                    subscriber.onError(new IllegalArgumentException("request must be positive, but was " + n));
+                    return;
+                }
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                if (latest != null) {
+                    ModbusByteBuf buf = latest;
+                    latest = null;
+                    emit(buf);
+                }
+                poll();
+            });
+        }
+
+        @Override
+        public void cancel() {
+            // 在回调中取消时立即生效, 同一轮分发中不再向其投递
+            if (executor.inEventLoop()) {
+                cancel0();
+            } else {
+                executor.execute(this::cancel0);
+            }
+        }
+
+        void emit(ModbusByteBuf buf) {
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+            try {
+                subscriber.onNext(buf);
+            } catch (Exception e) {
+                // 订阅方违反规范抛出异常, 视为取消订阅
+                log.error(endpoint.toString(), e);
+                cancel0();
+            }
+        }
+
+        void release() {
+            if (latest != null) {
+                latest.release();
+                latest = null;
+            }
+        }
+
+        private void cancel0() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            release();
+            subscriptions.remove(this);
+        }
+    }
+}
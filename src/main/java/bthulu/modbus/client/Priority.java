@@ -0,0 +1,15 @@
+package bthulu.modbus.client;
+
+/**
+ * 请求优先级. 同一设备的高优先级请求排在所有普通请求之前发送, 队列满时可挤掉最早的普通请求
+ */
+public enum Priority {
+    /**
+     * 写入及报警等紧急读取, 写入请求默认为高优先级
+     */
+    HIGH,
+    /**
+     * 常规轮询, 读取请求默认为普通优先级
+     */
+    NORMAL
+}
@@ -0,0 +1,46 @@
+package bthulu.modbus.client;
+
+/**
+ * 单个设备(从站)发送队列的容量限制. 队列中为等待发送节奏控制放行的请求, 不含已发送等待响应的请求.
+ * <p>
+ * 队列满时, 高优先级请求总是挤掉最早的普通请求; 普通请求按溢出策略处理. 没有可挤掉的普通请求时拒绝新请求,
+ * 被拒绝的请求以{@link RejectedRequestException}失败.
+ */
+public final class QueueLimit {
+    public enum Overflow {
+        /**
+         * 拒绝新请求
+         */
+        REJECT,
+        /**
+         * 丢弃最早的普通请求, 适合轮询: 排队最久的读取结果也最旧
+         */
+        DROP_OLDEST
+    }
+
+    public final int maxQueued;
+    public final Overflow overflow;
+
+    private QueueLimit(int maxQueued, Overflow overflow) {
+        if (maxQueued <= 0) {
+            throw new IllegalArgumentException("maxQueued must be positive");
+        }
+        this.maxQueued = maxQueued;
+        this.overflow = overflow;
+    }
+
+    public static QueueLimit reject(int maxQueued) {
+        return new QueueLimit(maxQueued, Overflow.REJECT);
+    }
+
+    public static QueueLimit dropOldest(int maxQueued) {
+        return new QueueLimit(maxQueued, Overflow.DROP_OLDEST);
+    }
+
+    /**
+     * 不限制队列长度
+     */
+    public static QueueLimit unbounded() {
+        return new QueueLimit(Integer.MAX_VALUE, Overflow.REJECT);
+    }
+}
@@ -0,0 +1,172 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 批量读取同一设备的多个寄存器区间, 相邻区间会被合并为尽量少的FC03请求(每个请求最多125个寄存器).
+ * <p>
+ * 两个区间之间的空隙不超过maxGap个寄存器时允许合并, 空隙部分会被一并读取后丢弃.
+ * 规划结果会被缓存, 同一个ReadBatch可在轮询中反复使用.
+ */
+public class ReadBatch {
+    public static final int MAX_REGISTERS = 125;
+
+    private final int maxGap;
+    private int[] addresses = new int[8];
+    private int[] counts = new int[8];
+    private int size;
+
+    private List<Block> plan;
+
+    private ReadBatch(int maxGap) {
+        if (maxGap < 0) {
+            throw new IllegalArgumentException("maxGap is negative");
+        }
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * @param maxGap 允许合并的两个区间之间最多间隔的寄存器数量
+     */
+    public static ReadBatch maxGap(int maxGap) {
+        return new ReadBatch(maxGap);
+    }
+
+    public static ReadBatch create() {
+        return new ReadBatch(0);
+    }
+
+    public ReadBatch add(int address, int count) {
+        if (address < 0 || address > 0xFFFF) {
+            throw new IllegalArgumentException("illegal address " + address);
+        }
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        if (count > MAX_REGISTERS) {
+            throw new ModbusException("exceed limited 125 registers");
+        }
+        if (size == addresses.length) {
+            addresses = Arrays.copyOf(addresses, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        addresses[size] = address;
+        counts[size] = count;
+        size++;
+        plan = null;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int address(int index) {
+        return addresses[index];
+    }
+
+    public int count(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @return 实际需要发送的请求数量
+     */
+    public int requestCount() {
+        return plan().size();
+    }
+
+    List<Block> plan() {
+        List<Block> p = plan;
+        if (p == null) {
+            p = plan = plan0();
+        }
+        return p;
+    }
+
+    /**
+     * 将各请求的响应按添加的区间切分, 结果与添加顺序一一对应.
+     * 任一请求失败时整批失败, 已成功的响应不再交给调用方, 在此释放
+     *
+     * @param futures 与plan一一对应的各请求结果
+     */
+    CompletableFuture<List<ModbusByteBuf>> split(List<Block> plan, CompletableFuture<ModbusByteBuf>[] futures) {
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures);
+        all.whenComplete((v, cause) -> {
+            if (cause != null) {
+                for (CompletableFuture<ModbusByteBuf> f : futures) {
+                    if (!f.isCompletedExceptionally()) {
+                        f.join().release();
+                    }
+                }
+            }
+        });
+        return all.thenApply(v -> {
+            ModbusByteBuf[] results = new ModbusByteBuf[size];
+            for (int i = 0; i < futures.length; i++) {
+                Block block = plan.get(i);
+                ByteBuf data = futures[i].join().delegate();
+                for (int j = 0; j < block.specCount; j++) {
+                    int spec = block.specs[j];
+                    int offset = data.readerIndex() + (addresses[spec] - block.address) * 2;
+                    results[spec] = ModbusByteBuf.wrap(data.retainedSlice(offset, counts[spec] * 2));
+                }
+                data.release();
+            }
+            return Arrays.asList(results);
+        });
+    }
+
+    private List<Block> plan0() {
+        // 按起始地址排序后贪心合并, 区间长度上限固定时贪心即为最少请求数
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> addresses[a] != addresses[b] ? addresses[a] - addresses[b] : counts[b] - counts[a]);
+
+        List<Block> blocks = new ArrayList<>();
+        Block block = null;
+        for (int i : order) {
+            int start = addresses[i];
+            int end = start + counts[i];
+            if (block != null && start - block.end() <= maxGap && Math.max(end, block.end()) - block.address <= MAX_REGISTERS) {
+                block.count = Math.max(end, block.end()) - block.address;
+                block.add(i);
+                continue;
+            }
+            block = new Block(start, counts[i]);
+            block.add(i);
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    static final class Block {
+        final int address;
+        int count;
+        int[] specs = new int[4];
+        int specCount;
+
+        Block(int address, int count) {
+            this.address = address;
+            this.count = count;
+        }
+
+        int end() {
+            return address + count;
+        }
+
+        void add(int spec) {
+            if (specCount == specs.length) {
+                specs = Arrays.copyOf(specs, specCount * 2);
+            }
+            specs[specCount++] = spec;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package bthulu.modbus.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读取缓存. 同一设备同一寄存器区间的并发读取共享同一个请求, 请求完成后在有效期内直接返回缓存结果.
+ * <p>
+ * 缓存条目数量有上限, 超出时淘汰最久未使用的条目. 通过本类写入时, 与写入区间重叠的缓存会失效.
+ * 失效只能感知经本类发出的写入: 直接经ModbusMaster写入, 其他主站写入或设备自身改变的寄存器, 在有效期内仍返回旧值,
+ * 此时需调用{@link #invalidate}或缩短有效期.
+ * 每次返回的ModbusByteBuf都是独立的读取视图, 池化模式下使用完毕后需release.
+ */
+public class ReadCache {
+    private final ModbusMaster master;
+    private final long freshnessNanos;
+    private final int maxEntries;
+
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /**
+     * @param freshnessMs 结果有效期, 为0时仅合并并发的相同读取
+     * @param maxEntries  最多缓存的区间数量
+     */
+    public ReadCache(ModbusMaster master, long freshnessMs, int maxEntries) {
+        if (freshnessMs < 0) {
+            throw new IllegalArgumentException("freshnessMs is negative");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.master = master;
+        this.freshnessNanos = TimeUnit.MILLISECONDS.toNanos(freshnessMs);
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > ReadCache.this.maxEntries) {
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public CompletableFuture<ModbusByteBuf> readAsync(String ipPort, int address, int count) {
+        return readAsync(master.endpoint(ipPort), address, count);
+    }
+
+    public CompletableFuture<ModbusByteBuf> readAsync(ModbusEndpoint endpoint, int address, int count) {
+        Key key = new Key(endpoint, address, count);
+        CompletableFuture<ModbusByteBuf> future;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.stale()) {
+                if (entry != null) {
+                    entry.evict();
+                }
+                entry = new Entry(key);
+                entries.put(key, entry);
+                entry.load();
+            }
+            if (entry.loaded) {
+                return CompletableFuture.completedFuture(ModbusByteBuf.wrap(entry.buf.delegate().retainedDuplicate()));
+            }
+            // 等待中的调用方各持有一份引用, 在结果返回时统一retain
+            entry.waiters++;
+            future = entry.future;
+        }
+        return future.thenApply(buf -> ModbusByteBuf.wrap(buf.delegate().duplicate()));
+    }
+
+    public CompletableFuture<Void> writeAsync(String ipPort, int address, ModbusByteBuf buf) {
+        return writeAsync(master.endpoint(ipPort), address, buf);
+    }
+
+    public CompletableFuture<Void> writeAsync(ModbusEndpoint endpoint, int address, ModbusByteBuf buf) {
+        int count = buf.readableBytes() / 2;
+        invalidate(endpoint, address, count);
+        // 写入期间发起的读取可能读到旧值, 写入完成后再失效一次
+        return master.writeAsync(endpoint, address, buf).whenComplete((v, cause) -> invalidate(endpoint, address, count));
+    }
+
+    /**
+     * 使与指定区间重叠的缓存失效
+     */
+    public synchronized void invalidate(ModbusEndpoint endpoint, int address, int count) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            Key key = entry.key;
+            if (key.endpoint == endpoint && key.address < address + count && address < key.address + key.count) {
+                entry.evict();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.evict();
+        }
+        entries.clear();
+    }
+
+    private synchronized void remove(Entry entry) {
+        entries.remove(entry.key, entry);
+    }
+
+    private final class Entry {
+        final Key key;
+        CompletableFuture<ModbusByteBuf> future;
+        ModbusByteBuf buf;
+        boolean loaded;
+        long loadedAt;
+        int waiters;
+        boolean evicted;
+
+        Entry(Key key) {
+            this.key = key;
+        }
+
+        void load() {
+            future = master.readAsync(key.endpoint, key.address, key.count).whenComplete((buf, cause) -> {
+                if (cause != null) {
+                    // 失败结果不缓存
+                    remove(this);
+                    return;
+                }
+                synchronized (ReadCache.this) {
+                    this.buf = buf;
+                    loaded = true;
+                    loadedAt = System.nanoTime();
+                    if (waiters > 0) {
+                        buf.delegate().retain(waiters);
+                    }
+                    if (evicted) {
+                        buf.release();
+                    }
+                }
+            });
+        }
+
+        /**
+         * 调用方需持有ReadCache锁
+         */
+        boolean stale() {
+            return loaded && System.nanoTime() - loadedAt > freshnessNanos;
+        }
+
+        /**
+         * 调用方需持有ReadCache锁, 释放缓存持有的结果, 请求尚未完成时在完成后释放
+         */
+        void evict() {
+            evicted = true;
+            if (loaded) {
+                buf.release();
+            }
+        }
+    }
+
+    private static final class Key {
+        final ModbusEndpoint endpoint;
+        final int address;
+        final int count;
+
+        Key(ModbusEndpoint endpoint, int address, int count) {
+            this.endpoint = endpoint;
+            this.address = address;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return endpoint == k.endpoint && address == k.address && count == k.count;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, address, count);
+        }
+    }
+}
@@ -4,10 +4,26 @@ import java.util.concurrent.CompletableFuture;
 
 public class ReadRequest extends ModbusRequest {
     private final CompletableFuture<ModbusByteBuf> future;
+    /**
+     * 功能码: 1读线圈, 2读离散输入, 3读保持寄存器, 4读输入寄存器
+     */
+    public final int functionCode;
+    /**
+     * 读取数量, 读线圈和离散输入时为位数, 否则为寄存器数
+     */
     public final int count;
 
     public ReadRequest(String ipPort, int address, CompletableFuture<ModbusByteBuf> future, int count) {
-        super(ipPort, address);
+        this(ipPort, 1, address, future, count);
+    }
+
+    public ReadRequest(String ipPort, int unitId, int address, CompletableFuture<ModbusByteBuf> future, int count) {
+        this(ipPort, unitId, 3, address, future, count);
+    }
+
+    public ReadRequest(String ipPort, int unitId, int functionCode, int address, CompletableFuture<ModbusByteBuf> future, int count) {
+        super(ipPort, unitId, address);
+        this.functionCode = functionCode;
         this.future = future;
         this.count = count;
     }
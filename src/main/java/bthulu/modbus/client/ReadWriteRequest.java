@@ -0,0 +1,31 @@
+package bthulu.modbus.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 功能码23, 一个请求内先写入后读取多个寄存器
+ */
+public class ReadWriteRequest extends ModbusRequest {
+    private final CompletableFuture<ModbusByteBuf> future;
+    public final int count;
+    public final int writeAddress;
+    public final ModbusByteBuf payload;
+
+    /**
+     * @param address 读取起始寄存器地址
+     * @param count   读取寄存器数量
+     */
+    public ReadWriteRequest(String ipPort, int unitId, int address, int count, int writeAddress, ModbusByteBuf payload, CompletableFuture<ModbusByteBuf> future) {
+        super(ipPort, unitId, address);
+        this.count = count;
+        this.writeAddress = writeAddress;
+        this.payload = payload;
+        this.future = future;
+        this.priority = Priority.HIGH;
+    }
+
+    @Override
+    public CompletableFuture<ModbusByteBuf> future() {
+        return future;
+    }
+}
@@ -0,0 +1,217 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.Unpooled;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按时间范围顺序回放{@link RegisterRecorder}写入的记录, 非线程安全.
+ * <p>
+ * 根据各分段文件头中的起始时间跳过范围之前的分段, 之后顺序扫描映射内存, 每次{@link #next()}只移动读取位置, 不创建对象.
+ * 可以在记录器仍在写入时读取, 正在写入的分段中最新的记录可能尚不可见, 新设备的名称也可能尚未保存.
+ * <pre>
+ * try (RecordReader reader = new RecordReader(dir, from, to)) {
+ *     while (reader.next()) {
+ *         reader.endpoint(); reader.timestamp(); reader.address(); reader.getShort(0);
+ *     }
+ * }
+ * </pre>
+ */
+public class RecordReader implements Closeable {
+    private final long fromMs;
+    private final long toMs;
+    private final Map<Integer, String> endpoints;
+    private final List<Path> segments;
+    private int segmentIndex;
+
+    private MappedByteBuffer buffer;
+    private int position;
+    /**
+     * 当前记录的起始位置, 为-1时没有当前记录
+     */
+    private int record = -1;
+    private boolean finished;
+
+    /**
+     * @param fromMs 起始时间(含)
+     * @param toMs   结束时间(不含)
+     */
+    public RecordReader(Path dir, long fromMs, long toMs) throws IOException {
+        this.fromMs = fromMs;
+        this.toMs = toMs;
+        this.endpoints = RegisterRecorder.loadEndpoints(dir);
+        List<Path> all = new ArrayList<>();
+        List<Long> firstTimestamps = new ArrayList<>();
+        for (Path path : RegisterRecorder.segments(dir)) {
+            long firstTimestamp = RegisterRecorder.readFirstTimestamp(path);
+            // 跳过预先创建尚未启用的分段
+            if (firstTimestamp != 0) {
+                all.add(path);
+                firstTimestamps.add(firstTimestamp);
+            }
+        }
+        // 从起始时间不晚于fromMs的最后一个分段开始
+        int start = 0;
+        for (int i = 1; i < all.size(); i++) {
+            if (firstTimestamps.get(i) <= fromMs) {
+                start = i;
+            } else {
+                break;
+            }
+        }
+        this.segments = new ArrayList<>(all.subList(start, all.size()));
+    }
+
+    /**
+     * 移动到下一条记录
+     *
+     * @return 没有更多记录时返回false
+     */
+    public boolean next() throws IOException {
+        while (!finished) {
+            if (buffer == null && !open()) {
+                break;
+            }
+            if (position + RegisterRecorder.RECORD_HEADER > buffer.limit()) {
+                unmap();
+                continue;
+            }
+            int length = buffer.getInt(position);
+            if (length < RegisterRecorder.RECORD_HEADER || position + length > buffer.limit()) {
+                // 分段结尾
+                unmap();
+                continue;
+            }
+            int p = position;
+            position += length;
+            long timestamp = buffer.getLong(p + 8);
+            if (timestamp >= toMs) {
+                // 并发写入的记录时间可能略有颠倒, 超出结束时间足够多后才停止
+                if (timestamp - toMs >= RegisterRecorder.MAX_DISORDER_MS) {
+                    break;
+                }
+                continue;
+            }
+            if (timestamp < fromMs) {
+                continue;
+            }
+            record = p;
+            return true;
+        }
+        finished = true;
+        record = -1;
+        unmap();
+        return false;
+    }
+
+    private boolean open() throws IOException {
+        if (segmentIndex >= segments.size()) {
+            return false;
+        }
+        Path path = segments.get(segmentIndex++);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < RegisterRecorder.SEGMENT_HEADER || buffer.getInt(0) != RegisterRecorder.MAGIC) {
+            unmap();
+            throw new IOException("not a segment file: " + path);
+        }
+        position = RegisterRecorder.SEGMENT_HEADER;
+        return true;
+    }
+
+    private void unmap() {
+        if (buffer != null) {
+            RegisterRecorder.unmap(buffer);
+            buffer = null;
+        }
+    }
+
+    public long timestamp() {
+        return buffer().getLong(record + 8);
+    }
+
+    /**
+     * @return 设备编号, 同一目录下的编号不变
+     */
+    public int endpointId() {
+        return buffer().getInt(record + 4);
+    }
+
+    /**
+     * @return 设备名称, 即{@link ModbusEndpoint#toString()}
+     */
+    public String endpoint() {
+        return endpoints.get(endpointId());
+    }
+
+    public int functionCode() {
+        return buffer().get(record + 18) & 0xFF;
+    }
+
+    public int address() {
+        return buffer().getShort(record + 16) & 0xFFFF;
+    }
+
+    /**
+     * @return 原始数据的字节数
+     */
+    public int dataBytes() {
+        return buffer().getInt(record) - RegisterRecorder.RECORD_HEADER;
+    }
+
+    /**
+     * @return 寄存器数量
+     */
+    public int count() {
+        return dataBytes() / 2;
+    }
+
+    /**
+     * @param index 相对于起始地址的寄存器序号
+     */
+    public short getShort(int index) {
+        if (index < 0 || index >= count()) {
+            throw new IndexOutOfBoundsException("index " + index + ", count " + count());
+        }
+        return buffer.getShort(record + RegisterRecorder.RECORD_HEADER + index * 2);
+    }
+
+    public int getUnsignedShort(int index) {
+        return getShort(index) & 0xFFFF;
+    }
+
+    /**
+     * @return 当前记录原始数据的副本
+     */
+    public ModbusByteBuf data() {
+        int n = dataBytes();
+        byte[] bytes = new byte[n];
+        for (int i = 0; i < n; i++) {
+            bytes[i] = buffer.get(record + RegisterRecorder.RECORD_HEADER + i);
+        }
+        return ModbusByteBuf.wrap(Unpooled.wrappedBuffer(bytes));
+    }
+
+    private MappedByteBuffer buffer() {
+        if (record < 0) {
+            throw new IllegalStateException("no current record");
+        }
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        record = -1;
+        unmap();
+    }
+}
@@ -0,0 +1,84 @@
+package bthulu.modbus.client;
+
+/**
+ * 一次更新中发生变化的寄存器, 按地址升序排列, 不可变
+ */
+public final class RegisterDelta {
+    public final ModbusEndpoint endpoint;
+    /**
+     * 更新时间(毫秒)
+     */
+    public final long timestamp;
+
+    private final int[] addresses;
+    private final short[] values;
+    private final int offset;
+    private final int size;
+
+    RegisterDelta(ModbusEndpoint endpoint, long timestamp, int[] addresses, short[] values, int offset, int size) {
+        this.endpoint = endpoint;
+        this.timestamp = timestamp;
+        this.addresses = addresses;
+        this.values = values;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    /**
+     * @return 发生变化的寄存器数量
+     */
+    public int size() {
+        return size;
+    }
+
+    public int address(int index) {
+        checkIndex(index);
+        return addresses[offset + index];
+    }
+
+    public short value(int index) {
+        checkIndex(index);
+        return values[offset + index];
+    }
+
+    public int unsignedValue(int index) {
+        return value(index) & 0xFFFF;
+    }
+
+    /**
+     * @return 地址在[address, address + count)内的变化, 与原对象共用数据; 没有时返回null
+     */
+    RegisterDelta slice(int address, int count) {
+        int from = offset;
+        int end = offset + size;
+        while (from < end && addresses[from] < address) {
+            from++;
+        }
+        int to = from;
+        while (to < end && addresses[to] < address + count) {
+            to++;
+        }
+        if (from == to) {
+            return null;
+        }
+        return from == offset && to == end ? this : new RegisterDelta(endpoint, timestamp, addresses, values, from, to - from);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append(endpoint).append('{');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(addresses[offset + i]).append('=').append(values[offset + i]);
+        }
+        return sb.append('}').toString();
+    }
+}
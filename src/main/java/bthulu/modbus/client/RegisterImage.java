@@ -0,0 +1,204 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 单个设备一段寄存器的最新值映像, 按变化上报(report by exception).
+ * <p>
+ * 每次读取结果直接从响应报文中逐个寄存器与映像比较, 只有发生变化的寄存器才写入映像并通知订阅方, 未变化时不产生任何对象.
+ * 可为模拟量设置死区: 与上次上报值之差的绝对值(按有符号16位整数计算)不超过死区时不视为变化, 映像保持上次上报值,
+ * 缓慢漂移累计超过死区后才上报. 每个寄存器首次读到时总会上报.
+ * <p>
+ * 订阅方在更新所在的线程(通常为EventLoop)中回调, 不可阻塞.
+ */
+public class RegisterImage {
+    private static final Logger log = LoggerFactory.getLogger(RegisterImage.class);
+
+    public final ModbusEndpoint endpoint;
+    public final int address;
+    public final int count;
+
+    private final short[] values;
+    /**
+     * 已读到过的寄存器, 按位存放
+     */
+    private final long[] known;
+    /**
+     * 各寄存器的死区, 未设置死区时为null
+     */
+    private int[] deadbands;
+
+    private final List<DeltaSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // 每次更新复用的变化记录
+    private final int[] changedAddresses;
+    private final short[] changedValues;
+
+    public RegisterImage(ModbusEndpoint endpoint, int address, int count) {
+        if (address < 0 || count <= 0 || address + count > 0x10000) {
+            throw new IllegalArgumentException("illegal range " + address + "+" + count);
+        }
+        this.endpoint = endpoint;
+        this.address = address;
+        this.count = count;
+        this.values = new short[count];
+        this.known = new long[(count + 63) >>> 6];
+        this.changedAddresses = new int[count];
+        this.changedValues = new short[count];
+    }
+
+    /**
+     * 为[address, address + count)内的寄存器设置死区, 为0时任何变化都上报
+     */
+    public synchronized void setDeadband(int address, int count, int deadband) {
+        checkRange(address, count);
+        if (deadband < 0) {
+            throw new IllegalArgumentException("deadband is negative");
+        }
+        if (deadbands == null) {
+            deadbands = new int[this.count];
+        }
+        for (int i = 0; i < count; i++) {
+            deadbands[address - this.address + i] = deadband;
+        }
+    }
+
+    /**
+     * 以一次读取结果更新映像并通知变化, 不释放buf. 结果中超出映像范围的寄存器忽略
+     *
+     * @param address buf中第一个寄存器的地址
+     * @return 发生变化的寄存器数量
+     */
+    public int update(int address, ModbusByteBuf buf) {
+        ByteBuf data = buf.delegate();
+        int base = data.readerIndex();
+        int n = data.readableBytes() / 2;
+        int from = Math.max(address, this.address);
+        int to = Math.min(address + n, this.address + count);
+        RegisterDelta delta;
+        synchronized (this) {
+            int changed = 0;
+            for (int a = from; a < to; a++) {
+                short value = data.getShort(base + (a - address) * 2);
+                int i = a - this.address;
+                long bit = 1L << i;
+                if ((known[i >>> 6] & bit) != 0) {
+                    short old = values[i];
+                    if (old == value || deadbands != null && Math.abs(value - old) <= deadbands[i]) {
+                        continue;
+                    }
+                } else {
+                    known[i >>> 6] |= bit;
+                }
+                values[i] = value;
+                changedAddresses[changed] = a;
+                changedValues[changed] = value;
+                changed++;
+            }
+            if (changed == 0 || subscriptions.isEmpty()) {
+                return changed;
+            }
+            int[] addresses = new int[changed];
+            short[] changedValues = new short[changed];
+            System.arraycopy(changedAddresses, 0, addresses, 0, changed);
+            System.arraycopy(this.changedValues, 0, changedValues, 0, changed);
+            delta = new RegisterDelta(endpoint, System.currentTimeMillis(), addresses, changedValues, 0, changed);
+        }
+        for (DeltaSubscription subscription : subscriptions) {
+            subscription.accept(delta);
+        }
+        return delta.size();
+    }
+
+    /**
+     * @return 寄存器的最新上报值, 尚未读到时返回0
+     */
+    public short get(int address) {
+        checkRange(address, 1);
+        return values[address - this.address];
+    }
+
+    public boolean isKnown(int address) {
+        checkRange(address, 1);
+        int i = address - this.address;
+        return (known[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * 订阅映像内所有寄存器的变化
+     */
+    public DeltaSubscription subscribe(Consumer<RegisterDelta> listener) {
+        return subscribe(address, count, listener);
+    }
+
+    /**
+     * 订阅[address, address + count)内寄存器的变化, 只收到该区间内的变化, 区间内没有变化时不回调
+     */
+    public DeltaSubscription subscribe(int address, int count, Consumer<RegisterDelta> listener) {
+        checkRange(address, count);
+        DeltaSubscription subscription = new DeltaSubscription(address, count, listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * 创建用于{@link ModbusPoller}的扫描回调, 以批量读取的各个结果更新映像, 并释放结果
+     */
+    public BiConsumer<List<ModbusByteBuf>, Throwable> listener(ReadBatch batch) {
+        return (results, cause) -> {
+            if (cause != null) {
+                return;
+            }
+            for (int i = 0; i < results.size(); i++) {
+                ModbusByteBuf buf = results.get(i);
+                try {
+                    update(batch.address(i), buf);
+                } finally {
+                    buf.release();
+                }
+            }
+        };
+    }
+
+    private void checkRange(int address, int count) {
+        if (address < this.address || count <= 0 || address + count > this.address + this.count) {
+            throw new IllegalArgumentException("range " + address + "+" + count + " out of image "
+                    + this.address + "+" + this.count);
+        }
+    }
+
+    public final class DeltaSubscription {
+        private final int address;
+        private final int count;
+        private final Consumer<RegisterDelta> listener;
+
+        private DeltaSubscription(int address, int count, Consumer<RegisterDelta> listener) {
+            this.address = address;
+            this.count = count;
+            this.listener = listener;
+        }
+
+        private void accept(RegisterDelta delta) {
+            RegisterDelta slice = delta.slice(address, count);
+            if (slice == null) {
+                return;
+            }
+            try {
+                listener.accept(slice);
+            } catch (Exception e) {
+                log.error(endpoint.toString(), e);
+            }
+        }
+
+        public void cancel() {
+            subscriptions.remove(this);
+        }
+    }
+}
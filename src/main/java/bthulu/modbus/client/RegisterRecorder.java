@@ -0,0 +1,576 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 读取结果记录器, 将读取到的原始数据追加写入目录下的分段内存映射文件, 通过{@link RecordReader}按时间范围回放.
+ * <p>
+ * 通过{@link ModbusMaster#setRecorder(RegisterRecorder)}启用后, 所有成功的读取在EventLoop中直接从接收到的报文复制到映射内存, 不创建中间对象.
+ * 追加时以原子操作在当前分段中预留位置, 各EventLoop互不加锁. 下一个分段由后台线程预先创建并映射, 写满时直接切换;
+ * 关闭写满的分段, 按保留时长和总大小删除最早的分段, 以及保存设备编号都在后台线程中进行, EventLoop不做阻塞的文件操作.
+ * 后台线程来不及准备下一分段时, 期间的记录直接丢弃. 设备以整数编号记录, 编号与设备名称的对应关系保存在目录下的endpoints文件中.
+ * <p>
+ * 分段文件格式(大端序): 32字节文件头(magic, 版本, 首条记录之前的时间戳, 分段序号), 之后为连续的记录, 长度为0处为结尾.
+ * 每条记录为20字节记录头(记录长度, 设备编号, 毫秒时间戳, 起始地址, 功能码, 保留字节)加响应中的原始数据.
+ * 多个线程同时追加时, 同一分段内相邻记录的时间戳可能略有先后颠倒, 不超过{@link #MAX_DISORDER_MS}.
+ * 文件头中时间戳为0的分段是预先创建但尚未启用的分段.
+ */
+public class RegisterRecorder implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(RegisterRecorder.class);
+
+    static final int MAGIC = 0x4D425243;
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER = 32;
+    static final int RECORD_HEADER = 20;
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String ENDPOINTS = "endpoints";
+    /**
+     * 同一分段内记录时间戳的最大颠倒幅度, 回放时据此判断是否已越过结束时间
+     */
+    static final long MAX_DISORDER_MS = 1000;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long retentionMs;
+    private final long maxBytes;
+
+    private final Map<ModbusEndpoint, Integer> endpointIds = new ConcurrentHashMap<>();
+    private final Map<String, Integer> nameIds = new ConcurrentHashMap<>();
+
+    /**
+     * 创建及关闭分段, 删除过期分段, 保存设备编号
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    private volatile Segment active;
+    /**
+     * 预先创建的下一分段
+     */
+    private final AtomicReference<Segment> next = new AtomicReference<>();
+    /**
+     * 已提交创建下一分段的任务
+     */
+    private final AtomicBoolean preparing = new AtomicBoolean();
+    /**
+     * 只在切换分段时使用
+     */
+    private final Object rollLock = new Object();
+    private volatile boolean shutdown;
+
+    // 以下状态只在后台线程中访问
+    /**
+     * 按序号排列的已关闭分段
+     */
+    private final List<Segment> closed = new ArrayList<>();
+    private long nextSequence;
+    /**
+     * 最新的已关闭分段之后的分段的起始时间, 即该分段的结束时间
+     */
+    private long closedEnd;
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * 分段大小64MB, 保留1天
+     */
+    public RegisterRecorder(Path dir) throws IOException {
+        this(dir, 64 << 20, 24 * 3600_000L, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param segmentBytes 每个分段文件的大小, 不超过1GB
+     * @param retentionMs  分段中最后一条记录超过该时长后删除
+     * @param maxBytes     所有分段(含预先创建的下一分段)的总大小上限, 超出时删除最早的分段
+     */
+    public RegisterRecorder(Path dir, int segmentBytes, long retentionMs, long maxBytes) throws IOException {
+        if (segmentBytes < SEGMENT_HEADER + RECORD_HEADER + 256 || segmentBytes > 1 << 30) {
+            throw new IllegalArgumentException("illegal segmentBytes: " + segmentBytes);
+        }
+        if (retentionMs <= 0 || maxBytes < 2L * segmentBytes) {
+            throw new IllegalArgumentException("illegal retention " + retentionMs + "ms, " + maxBytes + " bytes");
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.retentionMs = retentionMs;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        for (Map.Entry<Integer, String> e : loadEndpoints(dir).entrySet()) {
+            nameIds.put(e.getValue(), e.getKey());
+        }
+        for (Path path : segments(dir)) {
+            long firstTimestamp = readFirstTimestamp(path);
+            if (firstTimestamp == 0) {
+                // 上次预先创建但未启用
+                Files.deleteIfExists(path);
+                continue;
+            }
+            closed.add(new Segment(path, sequenceOf(path), firstTimestamp));
+        }
+        nextSequence = closed.isEmpty() ? 0 : closed.get(closed.size() - 1).sequence + 1;
+        closedEnd = System.currentTimeMillis();
+        executor = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory("register-recorder", true));
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        // 在构造线程中创建第一个分段, 之后的分段由后台线程创建
+        preparing.set(true);
+        prepare();
+        activate(null);
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    /**
+     * @return 已写入的记录数
+     */
+    public long records() {
+        return records.sum();
+    }
+
+    /**
+     * @return 已写入的字节数, 含记录头
+     */
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return 因下一分段尚未就绪或文件无法创建等原因丢弃的记录数
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 记录一次保持寄存器读取的结果, 不释放buf
+     */
+    public void append(ModbusEndpoint endpoint, int address, ModbusByteBuf buf) {
+        ByteBuf data = buf.delegate();
+        append(endpoint, 3, address, data, data.readerIndex(), data.readableBytes());
+    }
+
+    /**
+     * 从报文中复制数据, 不改变其读写位置
+     */
+    void append(ModbusEndpoint endpoint, int functionCode, int address, ByteBuf data, int index, int length) {
+        int id = endpointId(endpoint);
+        int recordBytes = RECORD_HEADER + length;
+        while (!shutdown) {
+            Segment segment = active;
+            if (segment != null && segment.append(id, functionCode, address, data, index, length, recordBytes)) {
+                records.increment();
+                bytes.add(recordBytes);
+                return;
+            }
+            if (!activate(segment)) {
+                dropped.increment();
+                return;
+            }
+        }
+    }
+
+    private int endpointId(ModbusEndpoint endpoint) {
+        Integer id = endpointIds.get(endpoint);
+        if (id != null) {
+            return id;
+        }
+        synchronized (nameIds) {
+            String name = endpoint.toString();
+            id = nameIds.get(name);
+            if (id == null) {
+                id = nameIds.size();
+                nameIds.put(name, id);
+                byte[] line = (id + "\t" + name + "\n").getBytes(StandardCharsets.UTF_8);
+                execute(() -> {
+                    try {
+                        Files.write(dir.resolve(ENDPOINTS), line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    } catch (IOException e) {
+                        log.error("save endpoint id failed: " + name, e);
+                    }
+                });
+            }
+            endpointIds.put(endpoint, id);
+            return id;
+        }
+    }
+
+    /**
+     * 当前分段已满(或尚无分段)时切换到预先创建的下一分段, 不做文件操作
+     *
+     * @param full 已满的分段
+     * @return 是否已有可用的分段
+     */
+    private boolean activate(Segment full) {
+        if (active != full) {
+            return true;
+        }
+        if (next.get() == null) {
+            prepareNext();
+            return false;
+        }
+        synchronized (rollLock) {
+            if (active != full) {
+                return true;
+            }
+            Segment segment = shutdown ? null : next.getAndSet(null);
+            if (segment == null) {
+                return false;
+            }
+            long timestamp = System.currentTimeMillis();
+            segment.start(timestamp);
+            active = segment;
+            if (full != null) {
+                // 在锁内提交, 保证先于关闭任务执行
+                execute(() -> retire(full, timestamp));
+            }
+        }
+        prepareNext();
+        return true;
+    }
+
+    private void prepareNext() {
+        if (!shutdown && next.get() == null && preparing.compareAndSet(false, true)) {
+            execute(this::prepare);
+        }
+    }
+
+    /**
+     * 创建并映射下一分段, 失败时1秒后重试
+     */
+    private void prepare() {
+        if (shutdown) {
+            return;
+        }
+        Path path = path(nextSequence);
+        Segment segment;
+        try {
+            segment = Segment.create(path, nextSequence, segmentBytes);
+        } catch (IOException e) {
+            log.error("create segment failed: " + path, e);
+            try {
+                executor.schedule(this::prepare, 1, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException ignored) {
+                // 已关闭
+            }
+            return;
+        }
+        nextSequence++;
+        next.set(segment);
+        preparing.set(false);
+        retain(System.currentTimeMillis());
+    }
+
+    /**
+     * 等待仍在复制数据的线程完成后关闭已写满的分段, 之后按保留策略删除旧分段
+     *
+     * @param end 下一分段的起始时间
+     */
+    private void retire(Segment segment, long end) {
+        segment.close();
+        closed.add(segment);
+        closedEnd = end;
+        retain(System.currentTimeMillis());
+    }
+
+    /**
+     * 删除超出保留时长或总大小的分段. 下一分段的起始时间不早于本分段的最后一条记录, 以此判断分段是否过期
+     */
+    private void retain(long now) {
+        // 正在写入及预先创建的分段
+        long total = (long) segmentBytes * (closed.size() + 2);
+        while (!closed.isEmpty()) {
+            Segment oldest = closed.get(0);
+            long end = closed.size() > 1 ? closed.get(1).firstTimestamp : closedEnd;
+            if (total <= maxBytes && now - end <= retentionMs) {
+                break;
+            }
+            closed.remove(0);
+            total -= segmentBytes;
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                log.warn("delete segment failed: " + oldest.path, e);
+            }
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 已关闭
+        }
+    }
+
+    private Path path(long sequence) {
+        return dir.resolve(String.format("%020d", sequence) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * 将已写入的记录刷到磁盘
+     */
+    public void flush() {
+        if (shutdown) {
+            return;
+        }
+        // 在后台线程中执行, 不会与关闭分段同时进行
+        try {
+            executor.submit(() -> {
+                Segment segment = active;
+                if (segment != null) {
+                    segment.buffer.force();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            log.warn("flush failed: " + dir, e);
+        }
+    }
+
+    /**
+     * 关闭当前分段并删除预先创建的分段, 等待后台任务完成
+     */
+    @Override
+    public void close() {
+        synchronized (rollLock) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+        }
+        execute(() -> {
+            Segment segment = active;
+            active = null;
+            if (segment != null) {
+                segment.close();
+            }
+            Segment unused = next.getAndSet(null);
+            if (unused != null) {
+                unused.close();
+                try {
+                    Files.deleteIfExists(unused.path);
+                } catch (IOException e) {
+                    log.warn("delete segment failed: " + unused.path, e);
+                }
+            }
+        });
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("close recorder timeout: {}", dir);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RegisterRecorder{" + dir + ", records=" + records() + ", bytes=" + bytes() + ", dropped=" + dropped() + "}";
+    }
+
+    /**
+     * @return 目录下按序号排列的分段文件
+     */
+    static List<Path> segments(Path dir) throws IOException {
+        List<Path> list = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return list;
+        }
+        try (Stream<Path> stream = Files.list(dir)) {
+            stream.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).forEach(list::add);
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static long readFirstTimestamp(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                // 读满文件头
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IOException("not a segment file: " + path);
+            }
+            return header.getLong(8);
+        }
+    }
+
+    /**
+     * 立即解除映射. JDK不提供解除映射的公开接口, 这里借助Netty调用DirectByteBuffer的cleaner;
+     * 当前JDK不支持(例如未开放sun.misc.Unsafe)时什么也不做, 或调用失败时只记录日志, 映射在buffer被GC回收时解除.
+     * 回退到GC解除时, Windows下仍被映射的分段文件无法删除, 删除失败只记录日志, 需手动清理.
+     * 调用后不能再访问buffer.
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        try {
+            PlatformDependent.freeDirectBuffer(buffer);
+        } catch (Throwable e) {
+            log.debug("unmap failed, left to GC", e);
+        }
+    }
+
+    /**
+     * @return 设备编号与名称的对应关系
+     */
+    static Map<Integer, String> loadEndpoints(Path dir) throws IOException {
+        Map<Integer, String> map = new ConcurrentHashMap<>();
+        Path path = dir.resolve(ENDPOINTS);
+        if (!Files.exists(path)) {
+            return map;
+        }
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            int tab = line.indexOf('\t');
+            if (tab > 0) {
+                map.put(Integer.parseInt(line.substring(0, tab)), line.substring(tab + 1));
+            }
+        }
+        return map;
+    }
+
+    private static final class Segment {
+        final Path path;
+        final long sequence;
+        volatile long firstTimestamp;
+
+        // 以下仅用于正在写入的分段
+        private FileChannel channel;
+        MappedByteBuffer buffer;
+        private int limit;
+        /**
+         * 下一条记录的位置, 追加时原子地预留
+         */
+        private final AtomicInteger reserve = new AtomicInteger(SEGMENT_HEADER);
+        /**
+         * 正在复制数据的线程数, 为0后才可解除映射
+         */
+        private final AtomicInteger writers = new AtomicInteger();
+
+        Segment(Path path, long sequence, long firstTimestamp) {
+            this.path = path;
+            this.sequence = sequence;
+            this.firstTimestamp = firstTimestamp;
+        }
+
+        /**
+         * 创建文件并映射, 文件头中的时间戳为0, 启用时再写入
+         */
+        static Segment create(Path path, long sequence, int segmentBytes) throws IOException {
+            Segment segment = new Segment(path, sequence, 0);
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            } catch (IOException e) {
+                channel.close();
+                Files.deleteIfExists(path);
+                throw e;
+            }
+            segment.channel = channel;
+            segment.limit = segmentBytes;
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(4, VERSION);
+            segment.buffer.putLong(16, sequence);
+            return segment;
+        }
+
+        void start(long timestamp) {
+            buffer.putLong(8, timestamp);
+            firstTimestamp = timestamp;
+        }
+
+        /**
+         * @return 分段已满时返回false
+         */
+        boolean append(int id, int functionCode, int address, ByteBuf data, int index, int length, int recordBytes) {
+            writers.incrementAndGet();
+            try {
+                if (reserve.get() >= limit) {
+                    return false;
+                }
+                // 先取时间再预留位置, 保证本分段的记录都不晚于下一分段的起始时间
+                long timestamp = Math.max(System.currentTimeMillis(), firstTimestamp);
+                int p = reserve.getAndAdd(recordBytes);
+                // 至少保留4字节的0作为结尾
+                if (p + recordBytes + 4 > limit) {
+                    return false;
+                }
+                MappedByteBuffer b = buffer;
+                b.putInt(p + 4, id);
+                b.putLong(p + 8, timestamp);
+                b.putShort(p + 16, (short) address);
+                b.put(p + 18, (byte) functionCode);
+                int q = p + RECORD_HEADER;
+                int i = index;
+                int end = index + length;
+                for (; i + 8 <= end; i += 8, q += 8) {
+                    b.putLong(q, data.getLong(i));
+                }
+                for (; i < end; i++, q++) {
+                    b.put(q, data.getByte(i));
+                }
+                // 最后写入记录长度, 读取方以长度为0判断结尾
+                b.putInt(p, recordBytes);
+                return true;
+            } finally {
+                writers.decrementAndGet();
+            }
+        }
+
+        /**
+         * 禁止再预留位置, 等待已预留的线程复制完成后刷盘并解除映射
+         */
+        void close() {
+            reserve.accumulateAndGet(limit, Math::max);
+            // 复制一条记录只需很短时间
+            while (writers.get() > 0) {
+                Thread.yield();
+            }
+            buffer.force();
+            unmap(buffer);
+            buffer = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn(path.toString(), e);
+            }
+            channel = null;
+        }
+    }
+}
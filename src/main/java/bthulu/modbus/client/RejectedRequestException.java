@@ -0,0 +1,10 @@
+package bthulu.modbus.client;
+
+/**
+ * 设备发送队列已满, 请求被拒绝或被更新的请求挤掉. 不填充调用栈, 不会自动重试
+ */
+public class RejectedRequestException extends ModbusException {
+    RejectedRequestException(String message) {
+        super(message, false);
+    }
+}
@@ -0,0 +1,100 @@
+package bthulu.modbus.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * 网络传输实现. linux下优先使用epoll, 系统调用更少, 延迟更低; 不可用时使用nio.
+ * <p>
+ * netty-transport-native-epoll为可选依赖, 需使用方自行引入, 未引入时不会加载任何epoll类
+ */
+public enum Transport {
+    NIO {
+        @Override
+        public EventLoopGroup newGroup() {
+            return new NioEventLoopGroup();
+        }
+
+        @Override
+        void configure(Bootstrap bootstrap) {
+            bootstrap.channel(NioSocketChannel.class);
+        }
+
+        @Override
+        void configureDatagram(Bootstrap bootstrap) {
+            bootstrap.channel(NioDatagramChannel.class);
+        }
+    },
+    EPOLL {
+        @Override
+        public EventLoopGroup newGroup() {
+            return new EpollEventLoopGroup();
+        }
+
+        @Override
+        void configure(Bootstrap bootstrap) {
+            bootstrap.channel(EpollSocketChannel.class)
+                    // 立即确认收到的响应, 避免延迟确认拖慢请求-响应往返
+                    .option(EpollChannelOption.TCP_QUICKACK, true);
+        }
+
+        @Override
+        void configureDatagram(Bootstrap bootstrap) {
+            bootstrap.channel(EpollDatagramChannel.class);
+        }
+    };
+
+    private static final boolean EPOLL_AVAILABLE = epollAvailable();
+
+    private static boolean epollAvailable() {
+        try {
+            return Epoll.isAvailable();
+        } catch (NoClassDefFoundError e) {
+            // 未引入netty-transport-native-epoll
+            return false;
+        }
+    }
+
+    /**
+     * @return epoll可用时返回EPOLL, 否则返回NIO
+     */
+    public static Transport auto() {
+        return EPOLL_AVAILABLE ? EPOLL : NIO;
+    }
+
+    /**
+     * @return 与group匹配的传输实现
+     */
+    public static Transport of(EventLoopGroup group) {
+        // epoll不可用时group不可能是EpollEventLoopGroup, 先判断可用性避免加载epoll类
+        return EPOLL_AVAILABLE && group instanceof EpollEventLoopGroup ? EPOLL : NIO;
+    }
+
+    public abstract EventLoopGroup newGroup();
+
+    /**
+     * 设置通道类型及通用socket选项
+     */
+    abstract void configure(Bootstrap bootstrap);
+
+    /**
+     * 设置Modbus/UDP使用的通道类型
+     */
+    abstract void configureDatagram(Bootstrap bootstrap);
+
+    void apply(Bootstrap bootstrap) {
+        // modbus报文很小, 关闭Nagle算法避免请求被延迟合并发送
+        bootstrap.option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true);
+        configure(bootstrap);
+    }
+}
@@ -0,0 +1,44 @@
+package bthulu.modbus.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Modbus/UDP使用的共享DatagramChannel, 每个EventLoop一个, 绑定本机随机端口.
+ * 到同一设备的请求固定通过该设备所在EventLoop的通道收发, 因此设备的收发状态只在一个线程中访问
+ */
+final class UdpChannels {
+    private final Bootstrap bootstrap;
+
+    private final Map<EventLoop, ChannelFuture> channels = new ConcurrentHashMap<>();
+
+    UdpChannels(Bootstrap bootstrap) {
+        this.bootstrap = bootstrap;
+    }
+
+    ChannelFuture channel(EventLoop eventLoop) {
+        ChannelFuture f = channels.get(eventLoop);
+        if (usable(f)) {
+            return f;
+        }
+        synchronized (this) {
+            f = channels.get(eventLoop);
+            if (usable(f)) {
+                return f;
+            }
+            ChannelFuture bind = bootstrap.clone(eventLoop).bind(0);
+            channels.put(eventLoop, bind);
+            // 通道关闭(包括绑定失败)后清除, 下次读写时重新绑定
+            bind.channel().closeFuture().addListener(future -> channels.remove(eventLoop, bind));
+            return bind;
+        }
+    }
+
+    private static boolean usable(ChannelFuture f) {
+        return f != null && (!f.isDone() || f.isSuccess() && f.channel().isActive());
+    }
+}
@@ -0,0 +1,150 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 共享DatagramChannel上的Modbus/UDP收发. 每个设备地址对应一个{@link ModbusCodec}, 排队, 节奏控制及事务编号分配与tcp完全相同,
+ * 响应按来源地址找到对应的codec, 再按事务编号匹配请求. 超时检查由通道统一定时执行, 而非每个设备一个定时任务.
+ * 长时间没有请求的设备释放其codec.
+ */
+final class UdpModbusHandler extends ChannelDuplexHandler {
+    private static final Logger log = LoggerFactory.getLogger(UdpModbusHandler.class);
+
+    private final int requestTimeoutMs;
+    private final long idleMs;
+    private final BiFunction<SocketAddress, Integer, PacingPolicy> pacingFactory;
+    private final Function<SocketAddress, QueueLimit> queueLimitFactory;
+    private final boolean pooled;
+
+    private final Map<InetSocketAddress, Peer> peers = new HashMap<>();
+
+    private ScheduledFuture<?> idleSchedule;
+
+    private ScheduledFuture<?> sweepSchedule;
+
+    UdpModbusHandler(int requestTimeoutMs, long idleMs, BiFunction<SocketAddress, Integer, PacingPolicy> pacingFactory,
+                     Function<SocketAddress, QueueLimit> queueLimitFactory, boolean pooled) {
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.idleMs = idleMs;
+        this.pacingFactory = pacingFactory;
+        this.queueLimitFactory = queueLimitFactory;
+        this.pooled = pooled;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        idleSchedule = ctx.executor().scheduleAtFixedRate(this::removeIdle, idleMs, idleMs, TimeUnit.MILLISECONDS);
+        long periodMs = ModbusCodec.sweepPeriodMs(requestTimeoutMs);
+        sweepSchedule = ctx.executor().scheduleAtFixedRate(() -> sweep(ctx), periodMs, periodMs, TimeUnit.MILLISECONDS);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        ModbusRequest request = (ModbusRequest) msg;
+        // 只有经ModbusMaster发送的请求才会走udp, 都有熔断器, 由此取得设备地址
+        InetSocketAddress address = request.breaker.endpoint.address;
+        Peer peer = peers.get(address);
+        if (peer == null) {
+            peer = new Peer(address);
+            peers.put(address, peer);
+        }
+        peer.lastUsedMs = System.currentTimeMillis();
+        peer.write(ctx, request, promise);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        DatagramPacket packet = (DatagramPacket) msg;
+        ByteBuf in = packet.content();
+        Peer peer = peers.get(packet.sender());
+        if (peer == null || !validFrame(in)) {
+            log.trace("drop datagram from {}", packet.sender());
+            packet.release();
+            return;
+        }
+        // 由codec释放
+        peer.channelRead(ctx, in);
+    }
+
+    /**
+     * 一个数据报即一个完整的帧, 报文头中的长度须与实际长度一致
+     */
+    private static boolean validFrame(ByteBuf in) {
+        int length = in.readableBytes();
+        return length >= 9 && in.getUnsignedShort(in.readerIndex() + 2) == 0
+                && in.getUnsignedShort(in.readerIndex() + 4) == length - 6;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (idleSchedule != null) {
+            idleSchedule.cancel(false);
+            sweepSchedule.cancel(false);
+        }
+        for (Peer peer : peers.values()) {
+            peer.failAll();
+        }
+        peers.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // 共享通道不因单个设备的错误(如端口不可达)关闭, 相关请求按超时处理
+        log.warn(String.valueOf(ctx.channel().localAddress()), cause);
+    }
+
+    private void sweep(ChannelHandlerContext ctx) {
+        for (Peer peer : peers.values()) {
+            peer.sweep(ctx);
+        }
+    }
+
+    private void removeIdle() {
+        long nowMs = System.currentTimeMillis();
+        Iterator<Peer> it = peers.values().iterator();
+        while (it.hasNext()) {
+            Peer peer = it.next();
+            if (nowMs - peer.lastUsedMs > idleMs && peer.stopIfIdle()) {
+                it.remove();
+            }
+        }
+    }
+
+    private final class Peer extends ModbusCodec {
+        private final InetSocketAddress address;
+        long lastUsedMs;
+
+        Peer(InetSocketAddress address) {
+            super(address, requestTimeoutMs, pacingFactory, queueLimitFactory, pooled);
+            this.address = address;
+        }
+
+        @Override
+        void startSweep(ChannelHandlerContext ctx) {
+            // 由UdpModbusHandler统一检查
+        }
+
+        @Override
+        void writeFrame(ChannelHandlerContext ctx, ByteBuf frame) {
+            ctx.write(new DatagramPacket(frame, address), ctx.voidPromise());
+        }
+    }
+}
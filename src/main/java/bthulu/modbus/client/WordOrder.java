@@ -0,0 +1,81 @@
+package bthulu.modbus.client;
+
+/**
+ * 多寄存器数值的字节序. 以32位数值0xAABBCCDD为例, 字母表示其在报文中依次出现的字节
+ */
+public enum WordOrder {
+    /**
+     * 大端, 报文依次为AA BB CC DD
+     */
+    ABCD {
+        @Override
+        int apply(int v) {
+            return v;
+        }
+
+        @Override
+        long apply(long v) {
+            return v;
+        }
+    },
+    /**
+     * 低位字在前, 字内高位字节在前, 报文依次为CC DD AA BB
+     */
+    CDAB {
+        @Override
+        int apply(int v) {
+            return swapBytes(Integer.reverseBytes(v));
+        }
+
+        @Override
+        long apply(long v) {
+            return swapBytes(Long.reverseBytes(v));
+        }
+    },
+    /**
+     * 高位字在前, 字内低位字节在前, 报文依次为BB AA DD CC
+     */
+    BADC {
+        @Override
+        int apply(int v) {
+            return swapBytes(v);
+        }
+
+        @Override
+        long apply(long v) {
+            return swapBytes(v);
+        }
+    },
+    /**
+     * 小端, 报文依次为DD CC BB AA
+     */
+    DCBA {
+        @Override
+        int apply(int v) {
+            return Integer.reverseBytes(v);
+        }
+
+        @Override
+        long apply(long v) {
+            return Long.reverseBytes(v);
+        }
+    };
+
+    /**
+     * 将按大端读出的数值转换为本字节序表示的数值, 变换是对合的, 同样可用于写入前的转换
+     */
+    abstract int apply(int v);
+
+    abstract long apply(long v);
+
+    /**
+     * 交换每个16位字内的两个字节
+     */
+    private static int swapBytes(int v) {
+        return ((v & 0x00FF00FF) << 8) | ((v >>> 8) & 0x00FF00FF);
+    }
+
+    private static long swapBytes(long v) {
+        return ((v & 0x00FF00FF00FF00FFL) << 8) | ((v >>> 8) & 0x00FF00FF00FF00FFL);
+    }
+}
@@ -0,0 +1,221 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 合并写入. 写入请求先缓存lingerMs毫秒, 期间对同一寄存器的多次写入只保留最后一次,
+ * 连续的寄存器合并为尽量少的FC16请求(每个请求最多123个寄存器)后发送.
+ * <p>
+ * 每次写入返回的future在覆盖其寄存器的所有请求都被设备确认后完成, 其中任一请求失败则失败.
+ * 与直接写入相同, 写入的ModbusByteBuf由框架释放, 调用后不应再使用.
+ */
+public class WriteCoalescer {
+    public static final int MAX_REGISTERS = 123;
+
+    private final ModbusMaster master;
+    private final long lingerMs;
+
+    private final Map<ModbusEndpoint, Pending> pendingMap = new ConcurrentHashMap<>();
+
+    public WriteCoalescer(ModbusMaster master, long lingerMs) {
+        if (lingerMs < 0) {
+            throw new IllegalArgumentException("lingerMs is negative");
+        }
+        this.master = master;
+        this.lingerMs = lingerMs;
+    }
+
+    public CompletableFuture<Void> writeAsync(String ipPort, int address, ModbusByteBuf buf) {
+        return writeAsync(master.endpoint(ipPort), address, buf);
+    }
+
+    public CompletableFuture<Void> writeAsync(ModbusEndpoint endpoint, int address, ModbusByteBuf buf) {
+        buf.validate();
+        ByteBuf data = buf.delegate();
+        int start = data.readerIndex();
+        int count = data.readableBytes() / 2;
+        if (address < 0 || address + count > 0x10000) {
+            throw new IllegalArgumentException("illegal address " + address);
+        }
+        CompletableFuture<Void> f = new CompletableFuture<>();
+        Pending pending = pendingMap.computeIfAbsent(endpoint, Pending::new);
+        synchronized (pending) {
+            for (int i = 0; i < count; i++) {
+                pending.add(address + i, data.getShort(start + i * 2));
+            }
+            pending.writes.add(new Write(address, count, f));
+            if (!pending.flushScheduled) {
+                pending.flushScheduled = true;
+                // 在该设备连接所在的EventLoop上发送, 合并后的请求无需再跨线程提交
+                master.eventLoop(endpoint).schedule(pending::flush, lingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        buf.release();
+        return f;
+    }
+
+    /**
+     * 缓存的寄存器写入编码为long: 地址(40位起), 写入序号(16位起), 值(低16位).
+     * 按long排序即按地址排序, 同一地址的多次写入按写入顺序相邻, 不必为每个寄存器装箱
+     */
+    private static long entry(int address, int seq, short value) {
+        return (long) address << 40 | (long) seq << 16 | value & 0xFFFF;
+    }
+
+    private static int address(long entry) {
+        return (int) (entry >>> 40);
+    }
+
+    /**
+     * 按地址排序并去重, 同一地址只保留最后一次写入, 剩余写入依次重新编号
+     *
+     * @return 去重后的数量
+     */
+    private static int compact(long[] entries, int size) {
+        Arrays.sort(entries, 0, size);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            long e = entries[i];
+            if (i + 1 < size && address(entries[i + 1]) == address(e)) {
+                continue;
+            }
+            entries[n] = entry(address(e), n, (short) e);
+            n++;
+        }
+        return n;
+    }
+
+    private final class Pending {
+        /**
+         * 写入序号占24位, 缓存满时先去重, 去重后最多65536项
+         */
+        private static final int MAX_ENTRIES = 1 << 24;
+
+        final ModbusEndpoint endpoint;
+        long[] entries = new long[64];
+        int size;
+        List<Write> writes = new ArrayList<>();
+        /**
+         * 上次发送时换出的缓存, 下次发送时换回, 避免每次发送重新分配.
+         * 发送总在同一个EventLoop中依次执行, 换回时上次发送已处理完毕
+         */
+        long[] spareEntries = new long[64];
+        List<Write> spareWrites = new ArrayList<>();
+        boolean flushScheduled;
+
+        Pending(ModbusEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        void add(int address, short value) {
+            if (size == MAX_ENTRIES) {
+                size = compact(entries, size);
+            }
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size] = entry(address, size, value);
+            size++;
+        }
+
+        void flush() {
+            long[] entries;
+            int size;
+            List<Write> writes;
+            synchronized (this) {
+                entries = this.entries;
+                size = this.size;
+                writes = this.writes;
+                this.entries = spareEntries;
+                this.size = 0;
+                this.writes = spareWrites;
+                spareEntries = entries;
+                spareWrites = writes;
+                flushScheduled = false;
+            }
+            size = compact(entries, size);
+
+            // 连续寄存器合并为一个请求, 超过123个寄存器时拆分
+            List<Write> frames = new ArrayList<>();
+            ModbusByteBuf frame = null;
+            int frameAddress = 0;
+            int frameCount = 0;
+            for (int i = 0; i < size; i++) {
+                int address = address(entries[i]);
+                if (frame != null && (address != frameAddress + frameCount || frameCount == MAX_REGISTERS)) {
+                    frames.add(send(frameAddress, frameCount, frame));
+                    frame = null;
+                }
+                if (frame == null) {
+                    frame = ModbusByteBuf.capacity(MAX_REGISTERS * 2);
+                    frameAddress = address;
+                    frameCount = 0;
+                }
+                frame.addShort((short) entries[i]);
+                frameCount++;
+            }
+            if (frame != null) {
+                frames.add(send(frameAddress, frameCount, frame));
+            }
+
+            for (Write write : writes) {
+                List<CompletableFuture<Void>> covering = new ArrayList<>();
+                for (Write fr : frames) {
+                    if (fr.address < write.address + write.count && write.address < fr.address + fr.count) {
+                        covering.add(fr.future);
+                    }
+                }
+                if (covering.isEmpty()) {
+                    write.future.complete(null);
+                    continue;
+                }
+                // 覆盖的请求全部确认后完成, 任一失败时立即失败, 不必等其余请求结束
+                AtomicInteger remaining = new AtomicInteger(covering.size());
+                for (CompletableFuture<Void> f : covering) {
+                    f.whenComplete((v, cause) -> {
+                        if (cause != null) {
+                            write.future.completeExceptionally(cause);
+                        } else if (remaining.decrementAndGet() == 0) {
+                            write.future.complete(null);
+                        }
+                    });
+                }
+            }
+            writes.clear();
+        }
+
+        private Write send(int address, int count, ModbusByteBuf frame) {
+            CompletableFuture<Void> f;
+            try {
+                f = master.writeAsync(endpoint, address, frame);
+            } catch (RuntimeException e) {
+                // 未能交给ModbusMaster时请求数据在此释放, 覆盖该请求的写入随之失败, 不影响其余请求发送
+                frame.release();
+                f = new CompletableFuture<>();
+                f.completeExceptionally(e);
+            }
+            return new Write(address, count, f);
+        }
+    }
+
+    private static final class Write {
+        final int address;
+        final int count;
+        final CompletableFuture<Void> future;
+
+        Write(int address, int count, CompletableFuture<Void> future) {
+            this.address = address;
+            this.count = count;
+            this.future = future;
+        }
+    }
+}
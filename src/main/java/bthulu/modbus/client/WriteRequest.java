@@ -5,11 +5,30 @@ import java.util.concurrent.CompletableFuture;
 public class WriteRequest extends ModbusRequest {
     private final CompletableFuture<Void> future;
     public final ModbusByteBuf payload;
+    /**
+     * 功能码: 5写单个线圈, 6写单个寄存器, 15写多个线圈, 16写多个寄存器
+     */
+    public final int functionCode;
+    /**
+     * 写多个线圈时的线圈数量, 其它功能码忽略
+     */
+    public final int count;
 
     public WriteRequest(String ipPort, int address, CompletableFuture<Void> future, ModbusByteBuf payload) {
-        super(ipPort, address);
+        this(ipPort, 1, address, future, payload);
+    }
+
+    public WriteRequest(String ipPort, int unitId, int address, CompletableFuture<Void> future, ModbusByteBuf payload) {
+        this(ipPort, unitId, 16, address, future, payload, 0);
+    }
+
+    public WriteRequest(String ipPort, int unitId, int functionCode, int address, CompletableFuture<Void> future, ModbusByteBuf payload, int count) {
+        super(ipPort, unitId, address);
+        this.functionCode = functionCode;
         this.future = future;
         this.payload = payload;
+        this.count = count;
+        this.priority = Priority.HIGH;
     }
 
     @Override
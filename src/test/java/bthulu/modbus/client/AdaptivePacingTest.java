@@ -0,0 +1,118 @@
+package bthulu.modbus.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 以虚拟时间验证加性增/乘性减
+ */
+public class AdaptivePacingTest {
+    private final AdaptivePacing pacing = new AdaptivePacing(2, 16, 8);
+    private long now = 1000;
+
+    @Test
+    public void startsWithOneInFlightAtMinInterval() {
+        assertEquals(1, pacing.window());
+        assertEquals(2, pacing.intervalMs());
+        assertEquals(0, pacing.delayMs(now, 0));
+        assertEquals(-1, pacing.delayMs(now, 1));
+
+        pacing.onSend(now);
+        assertEquals(2, pacing.delayMs(now, 0));
+        assertEquals(1, pacing.delayMs(now + 1, 0));
+        assertEquals(0, pacing.delayMs(now + 2, 0));
+    }
+
+    @Test
+    public void windowGrowsByOnePerWindowOfSuccesses() {
+        pacing.onComplete(now);
+        assertEquals(2, pacing.window());
+        // 每次正常响应加1/窗口, 约一个窗口的正常响应才加1: 2, 2.5, 2.9, 3.24
+        pacing.onComplete(now);
+        pacing.onComplete(now);
+        assertEquals(2, pacing.window());
+        pacing.onComplete(now);
+        assertEquals(3, pacing.window());
+        assertEquals(0, pacing.delayMs(now, 2));
+        assertEquals(-1, pacing.delayMs(now, 3));
+    }
+
+    @Test
+    public void windowCappedAtMaxInFlight() {
+        grow(1000);
+        assertEquals(8, pacing.window());
+        assertEquals(2, pacing.intervalMs());
+    }
+
+    @Test
+    public void busyHalvesWindowOncePerInterval() {
+        grow(1000);
+        pacing.onBusy(now);
+        assertEquals(4, pacing.window());
+        // 同一批在途请求的繁忙响应不重复收缩
+        pacing.onBusy(now + 1);
+        assertEquals(4, pacing.window());
+        pacing.onBusy(now + 2);
+        assertEquals(2, pacing.window());
+        pacing.onTimeout(now + 4);
+        assertEquals(1, pacing.window());
+        assertEquals(2, pacing.intervalMs());
+    }
+
+    @Test
+    public void intervalDoublesAtWindowOneUpToMax() {
+        int[] expected = {4, 8, 16, 16};
+        for (int interval : expected) {
+            now += 100;
+            pacing.onTimeout(now);
+            assertEquals(1, pacing.window());
+            assertEquals(interval, pacing.intervalMs());
+        }
+        pacing.onSend(now);
+        assertEquals(16, pacing.delayMs(now, 0));
+    }
+
+    @Test
+    public void intervalShrinksBeforeWindowGrows() {
+        now += 100;
+        pacing.onBusy(now);
+        now += 100;
+        pacing.onBusy(now);
+        assertEquals(8, pacing.intervalMs());
+        for (int interval = 7; interval >= 2; interval--) {
+            pacing.onComplete(now);
+            assertEquals(interval, pacing.intervalMs());
+            assertEquals(1, pacing.window());
+        }
+        // 间隔已到最小值, 之后的正常响应扩大窗口
+        pacing.onComplete(now);
+        assertEquals(2, pacing.intervalMs());
+        assertEquals(2, pacing.window());
+    }
+
+    @Test
+    public void zeroMinIntervalStillDoublesFromOne() {
+        AdaptivePacing pacing = new AdaptivePacing(0, 4, 1);
+        pacing.onBusy(now);
+        assertEquals(1, pacing.intervalMs());
+        pacing.onBusy(now + 1);
+        assertEquals(2, pacing.intervalMs());
+        pacing.onComplete(now);
+        pacing.onComplete(now);
+        pacing.onComplete(now);
+        assertEquals(0, pacing.intervalMs());
+        assertEquals(1, pacing.window());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxIntervalNotLessThanMin() {
+        new AdaptivePacing(10, 5, 1);
+    }
+
+    private void grow(int successes) {
+        for (int i = 0; i < successes; i++) {
+            pacing.onComplete(now);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package bthulu.modbus.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    private final List<Long> probes = new ArrayList<>();
+    private final List<CircuitBreaker.State> changes = new ArrayList<>();
+    private CircuitBreaker.Settings settings;
+    private ModbusEndpoint endpoint;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        settings = new CircuitBreaker.Settings(50, (b, delayMs) -> probes.add(delayMs));
+        settings.openMs = 100;
+        settings.maxOpenMs = 300;
+        settings.listener = (endpoint, state) -> {
+            assertSame(this.endpoint, endpoint);
+            changes.add(state);
+        };
+        // 使用从站自带的熔断器, 日志和状态回调中的从站与实际一致
+        endpoint = new ModbusConnection("127.0.0.1:502", null, settings, null).endpoint(1);
+        breaker = endpoint.breaker;
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.opens());
+        assertEquals(Collections.singletonList(100L), probes);
+        assertEquals(Collections.singletonList(CircuitBreaker.State.OPEN), changes);
+
+        // 打开期间的失败不再计数
+        breaker.onFailure();
+        assertEquals(1, breaker.opens());
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void halfOpenAllowsSingleTrial() throws Exception {
+        open();
+        breaker.halfOpen();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        // 试探请求没有回报结果时, 超过试探超时后放行下一个
+        Thread.sleep(60);
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void trialSuccessCloses() {
+        open();
+        breaker.halfOpen();
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.allowRequest());
+        assertEquals(3, changes.size());
+        assertEquals(CircuitBreaker.State.CLOSED, changes.get(2));
+
+        // 关闭后退避时间重新计算
+        open();
+        assertEquals(100L, (long) probes.get(1));
+    }
+
+    @Test
+    public void trialFailureReopensWithDoubledBackoff() {
+        open();
+        breaker.halfOpen();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(2, breaker.opens());
+        assertEquals(200L, (long) probes.get(1));
+
+        breaker.halfOpen();
+        breaker.onFailure();
+        assertEquals("backoff capped at maxOpenMs", 300L, (long) probes.get(2));
+    }
+
+    @Test
+    public void probeBackoff() {
+        assertEquals(-1, breaker.backoff());
+        open();
+        assertEquals(200, breaker.backoff());
+        assertEquals(300, breaker.backoff());
+        breaker.halfOpen();
+        assertEquals(-1, breaker.backoff());
+    }
+
+    @Test
+    public void halfOpenOnlyFromOpen() {
+        breaker.halfOpen();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void disabledWhenThresholdNotPositive() {
+        settings.failureThreshold = 0;
+        for (int i = 0; i < 10; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.allowRequest());
+    }
+
+    private void open() {
+        for (int i = 0; i < settings.failureThreshold; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+}
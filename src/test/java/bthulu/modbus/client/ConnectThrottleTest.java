@@ -0,0 +1,119 @@
+package bthulu.modbus.client;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectThrottleTest {
+    private final List<Integer> started = new ArrayList<>();
+    private ModbusMaster master;
+
+    @After
+    public void tearDown() {
+        if (master != null) {
+            master.close();
+        }
+    }
+
+    @Test
+    public void concurrencyCapped() {
+        ConnectThrottle throttle = new ConnectThrottle(2);
+        for (int i = 0; i < 4; i++) {
+            acquire(throttle, i);
+        }
+        assertEquals(Arrays.asList(0, 1), started);
+        assertEquals(2, throttle.waiting());
+    }
+
+    @Test
+    public void releaseHandsSlotToNextWaiter() {
+        ConnectThrottle throttle = new ConnectThrottle(1);
+        acquire(throttle, 0);
+        acquire(throttle, 1);
+        acquire(throttle, 2);
+
+        // 按排队顺序放行, 名额直接交给下一个等待者
+        throttle.release();
+        assertEquals(Arrays.asList(0, 1), started);
+        throttle.release();
+        assertEquals(Arrays.asList(0, 1, 2), started);
+        assertEquals(0, throttle.waiting());
+
+        // 没有等待者时归还名额, 之后的建连立即执行
+        throttle.release();
+        acquire(throttle, 3);
+        assertEquals(Arrays.asList(0, 1, 2, 3), started);
+        acquire(throttle, 4);
+        assertEquals(1, throttle.waiting());
+    }
+
+    @Test
+    public void raisingLimitReleasesWaiters() {
+        ConnectThrottle throttle = new ConnectThrottle(1);
+        for (int i = 0; i < 4; i++) {
+            acquire(throttle, i);
+        }
+        throttle.setMaxConcurrent(3);
+        assertEquals(Arrays.asList(0, 1, 2), started);
+        assertEquals(1, throttle.waiting());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void limitMustBePositive() {
+        new ConnectThrottle(0);
+    }
+
+    @Test
+    public void warmUpRetriesUntilSlaveListens() throws Exception {
+        int port = freePort();
+        master = new ModbusMaster(1, 60, 3, new NioEventLoopGroup(1));
+        // 同一ip:port的两个从站只连接一次
+        ModbusEndpoint first = master.endpoint("127.0.0.1:" + port, 1);
+        ModbusEndpoint second = master.endpoint("127.0.0.1:" + port, 2);
+        CompletableFuture<List<ModbusEndpoint>> f = master.warmUp(Arrays.asList(first, second), 3);
+
+        // 首次连接被拒绝后至少退避500ms, 此前从站开始监听
+        Thread.sleep(200);
+        try (LocalSlave slave = new LocalSlave(port)) {
+            assertEquals(Collections.emptyList(), f.get(10, TimeUnit.SECONDS));
+            // 客户端连接成功可能早于从站处理accept
+            for (int i = 0; i < 100 && slave.connections() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, slave.connections());
+            assertEquals(2, first.metrics.getConnectAttempts());
+            assertEquals(1, first.metrics.getConnectFailures());
+        }
+    }
+
+    @Test
+    public void warmUpReportsUnreachable() throws Exception {
+        master = new ModbusMaster(1, 60, 3, new NioEventLoopGroup(1));
+        ModbusEndpoint endpoint = master.endpoint("127.0.0.1:" + freePort());
+        List<ModbusEndpoint> failed = master.warmUp(Collections.singletonList(endpoint), 0).get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList(endpoint), failed);
+    }
+
+    private void acquire(ConnectThrottle throttle, int id) {
+        throttle.acquire(() -> started.add(id));
+    }
+
+    /**
+     * @return 当前没有监听的本机端口
+     */
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HedgedReadTest {
+    private final EmbeddedChannel loop = new EmbeddedChannel();
+    private final CompletableFuture<ModbusByteBuf> primary = new CompletableFuture<>();
+    private final CompletableFuture<ModbusByteBuf> backup = new CompletableFuture<>();
+    private final AtomicInteger hedges = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        loop.finishAndReleaseAll();
+    }
+
+    @Test
+    public void hedgeFiresAfterDelayAndBackupWins() throws Exception {
+        HedgedRead hedged = start(primary);
+        loop.runScheduledPendingTasks();
+        assertEquals(0, hedges.get());
+
+        Thread.sleep(60);
+        loop.runScheduledPendingTasks();
+        assertEquals(1, hedges.get());
+
+        ModbusByteBuf buf = ModbusByteBuf.wrap(new short[]{1});
+        backup.complete(buf);
+        assertSame(buf, hedged.result.get());
+        assertTrue(primary.isCancelled());
+        buf.release();
+    }
+
+    @Test
+    public void primaryBeforeDelayNeverHedges() throws Exception {
+        HedgedRead hedged = start(primary);
+        ModbusByteBuf buf = ModbusByteBuf.wrap(new short[]{1});
+        primary.complete(buf);
+        assertSame(buf, hedged.result.get());
+
+        Thread.sleep(60);
+        loop.runScheduledPendingTasks();
+        assertEquals(0, hedges.get());
+        buf.release();
+    }
+
+    @Test
+    public void loserCompletingBeforeCancelReleased() throws Exception {
+        // 落败方在被取消前已完成, 例如响应与取消同时到达
+        CompletableFuture<ModbusByteBuf> uncancellable = new CompletableFuture<ModbusByteBuf>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return false;
+            }
+        };
+        HedgedRead hedged = start(uncancellable);
+        Thread.sleep(60);
+        loop.runScheduledPendingTasks();
+
+        ModbusByteBuf winner = ModbusByteBuf.wrap(new short[]{1});
+        ModbusByteBuf loser = ModbusByteBuf.wrap(new short[]{2});
+        backup.complete(winner);
+        uncancellable.complete(loser);
+        assertSame(winner, hedged.result.get());
+        assertEquals(0, loser.delegate().refCnt());
+        winner.release();
+    }
+
+    @Test
+    public void failureWaitsForOther() throws Exception {
+        HedgedRead hedged = start(primary);
+        Thread.sleep(60);
+        loop.runScheduledPendingTasks();
+
+        primary.completeExceptionally(new ModbusException("busy"));
+        assertFalse(hedged.result.isDone());
+        ModbusByteBuf buf = ModbusByteBuf.wrap(new short[]{1});
+        backup.complete(buf);
+        assertSame(buf, hedged.result.get());
+        buf.release();
+    }
+
+    @Test
+    public void bothFailWithLaterCause() throws Exception {
+        HedgedRead hedged = start(primary);
+        Thread.sleep(60);
+        loop.runScheduledPendingTasks();
+
+        backup.completeExceptionally(new ModbusException("first"));
+        ModbusException later = new ModbusException("second");
+        primary.completeExceptionally(later);
+        try {
+            hedged.result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(later, e.getCause());
+        }
+    }
+
+    /**
+     * 从站对第一个连接上的请求延迟响应, 对冲请求经第二个连接先返回, 主请求被取消并释放事务编号
+     */
+    @Test
+    public void slowPrimaryConnectionHedged() throws Exception {
+        AtomicBoolean slow = new AtomicBoolean();
+        // 以连接序号加1作为读取结果
+        LocalSlave slave = new LocalSlave() {
+            @Override
+            protected void respond(ChannelHandlerContext ctx, ByteBuf in, int connection) {
+                ByteBuf out = header(ctx, in).writeByte(2).writeShort(connection + 1);
+                if (connection == 0 && slow.get()) {
+                    ctx.executor().schedule(() -> send(ctx, out), 300, TimeUnit.MILLISECONDS);
+                } else {
+                    send(ctx, out);
+                }
+            }
+        };
+        ModbusMaster master = new ModbusMaster(2, 60, 3, new NioEventLoopGroup(1));
+        try {
+            master.setPooled(true);
+            ModbusEndpoint endpoint = master.endpoint(slave.address());
+            // 积累足够的响应延迟样本后才会对冲
+            for (int i = 0; i < 100; i++) {
+                master.readAsync(endpoint, 0, 1).get(5, TimeUnit.SECONDS).release();
+            }
+            master.setHedging(50, 20);
+            slow.set(true);
+
+            long start = System.nanoTime();
+            ModbusByteBuf buf = master.readAsync(endpoint, 0, 1).get(5, TimeUnit.SECONDS);
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertEquals("answered by the second connection", 2, buf.readShort());
+            assertTrue(String.valueOf(elapsedMs), elapsedMs >= 20 && elapsedMs < 300);
+            buf.release();
+            assertEquals(1, endpoint.metrics.getHedges());
+
+            // 主请求已取消, 之后到达的响应按迟到响应丢弃
+            for (int i = 0; i < 100 && endpoint.metrics.getLateResponses() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, endpoint.metrics.getLateResponses());
+            assertEquals(1, endpoint.metrics.getCancelled());
+            assertEquals(0, endpoint.metrics.getInFlight());
+        } finally {
+            master.close();
+            slave.close();
+        }
+    }
+
+    private HedgedRead start(CompletableFuture<ModbusByteBuf> primary) {
+        HedgedRead hedged = new HedgedRead(primary);
+        hedged.start(loop.eventLoop(), 50, () -> {
+            hedges.incrementAndGet();
+            return backup;
+        });
+        return hedged;
+    }
+}
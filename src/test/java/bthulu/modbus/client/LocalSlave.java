@@ -0,0 +1,141 @@
+package bthulu.modbus.client;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的本机Modbus TCP从站, 默认以registers响应功能码3, 16与23, 其他功能码返回非法功能码异常.
+ * 子类覆盖{@link #respond}以丢弃, 延迟或改写响应.
+ */
+class LocalSlave implements Closeable {
+    final short[] registers = new short[0x10000];
+
+    private final EventLoopGroup group = new NioEventLoopGroup(1);
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Channel channel;
+
+    LocalSlave() throws InterruptedException {
+        this(0);
+    }
+
+    /**
+     * @param port 监听端口, 为0时使用任意空闲端口
+     */
+    LocalSlave(int port) throws InterruptedException {
+        try {
+            channel = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            int connection = connections.getAndIncrement();
+                            ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(264, 4, 2), new SimpleChannelInboundHandler<ByteBuf>() {
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, ByteBuf in) {
+                                    respond(ctx, in, connection);
+                                }
+                            });
+                        }
+                    })
+                    .bind("127.0.0.1", port).sync().channel();
+        } catch (Exception e) {
+            group.shutdownGracefully();
+            throw e;
+        }
+    }
+
+    /**
+     * @return 主站连接本从站所用的地址
+     */
+    String address() {
+        return "127.0.0.1:" + ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    /**
+     * @return 已接受的连接数量
+     */
+    int connections() {
+        return connections.get();
+    }
+
+    /**
+     * 在从站的EventLoop中处理一个完整的请求帧
+     *
+     * @param connection 收到请求的连接序号, 从0开始
+     */
+    protected void respond(ChannelHandlerContext ctx, ByteBuf in, int connection) {
+        int fc = in.getUnsignedByte(7);
+        ByteBuf out;
+        switch (fc) {
+            case 3:
+                out = read(header(ctx, in), in.getUnsignedShort(8), in.getUnsignedShort(10));
+                break;
+            case 16:
+                write(in.getUnsignedShort(8), in.getUnsignedShort(10), in, 13);
+                out = header(ctx, in).writeBytes(in, 8, 4);
+                break;
+            case 23:
+                write(in.getUnsignedShort(12), in.getUnsignedShort(14), in, 17);
+                out = read(header(ctx, in), in.getUnsignedShort(8), in.getUnsignedShort(10));
+                break;
+            default:
+                exception(ctx, in, 1);
+                return;
+        }
+        send(ctx, out);
+    }
+
+    private ByteBuf read(ByteBuf out, int address, int count) {
+        out.writeByte(count * 2);
+        for (int i = 0; i < count; i++) {
+            out.writeShort(registers[address + i]);
+        }
+        return out;
+    }
+
+    private void write(int address, int count, ByteBuf in, int offset) {
+        for (int i = 0; i < count; i++) {
+            registers[address + i] = in.getShort(offset + i * 2);
+        }
+    }
+
+    /**
+     * @return 已写入事务编号, 协议号, 单元号及功能码的响应, 长度由{@link #send}填写
+     */
+    static ByteBuf header(ChannelHandlerContext ctx, ByteBuf in) {
+        return ctx.alloc().buffer().writeShort(in.getUnsignedShort(0)).writeShort(0).writeShort(0)
+                .writeByte(in.getUnsignedByte(6)).writeByte(in.getUnsignedByte(7));
+    }
+
+    static void send(ChannelHandlerContext ctx, ByteBuf out) {
+        out.setShort(4, out.readableBytes() - 6);
+        ctx.writeAndFlush(out);
+    }
+
+    /**
+     * 以给定异常码响应
+     */
+    static void exception(ChannelHandlerContext ctx, ByteBuf in, int code) {
+        ByteBuf out = header(ctx, in).writeByte(code);
+        out.setByte(7, in.getUnsignedByte(7) | 0x80);
+        send(ctx, out);
+    }
+
+    @Override
+    public void close() {
+        channel.close().syncUninterruptibly();
+        group.shutdownGracefully();
+    }
+}
@@ -0,0 +1,104 @@
+package bthulu.modbus.client;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+public class ModbusByteBufTest {
+    private static final int VALUE = 0xAABBCCDD;
+
+    @Test
+    public void readIntInEachWordOrder() {
+        assertEquals(VALUE, bytes(0xAA, 0xBB, 0xCC, 0xDD).readInt(WordOrder.ABCD));
+        assertEquals(VALUE, bytes(0xCC, 0xDD, 0xAA, 0xBB).readInt(WordOrder.CDAB));
+        assertEquals(VALUE, bytes(0xBB, 0xAA, 0xDD, 0xCC).readInt(WordOrder.BADC));
+        assertEquals(VALUE, bytes(0xDD, 0xCC, 0xBB, 0xAA).readInt(WordOrder.DCBA));
+    }
+
+    @Test
+    public void readLongInEachWordOrder() {
+        long value = 0x1122334455667788L;
+        assertEquals(value, bytes(0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, 0x88).readLong(WordOrder.ABCD));
+        assertEquals(value, bytes(0x77, 0x88, 0x55, 0x66, 0x33, 0x44, 0x11, 0x22).readLong(WordOrder.CDAB));
+        assertEquals(value, bytes(0x22, 0x11, 0x44, 0x33, 0x66, 0x55, 0x88, 0x77).readLong(WordOrder.BADC));
+        assertEquals(value, bytes(0x88, 0x77, 0x66, 0x55, 0x44, 0x33, 0x22, 0x11).readLong(WordOrder.DCBA));
+    }
+
+    @Test
+    public void defaultIntOrderMatchesAddInt() {
+        ModbusByteBuf buf = ModbusByteBuf.wrap(VALUE, -1, 1);
+        assertEquals(VALUE, buf.readInt());
+        assertArrayEquals(new int[]{-1, 1}, buf.readInt(2));
+        assertEquals(0, buf.readableBytes());
+    }
+
+    @Test
+    public void bulkReadsAdvanceReaderIndex() {
+        ModbusByteBuf buf = bytes(0x3F, 0x80, 0x00, 0x00, 0xC0, 0x00, 0x00, 0x00, 0xFF, 0xFF, 0xFF, 0xFE);
+        float[] floats = new float[3];
+        buf.readFloat(floats, 1, 2, WordOrder.ABCD);
+        assertEquals(1.0f, floats[1], 0);
+        assertEquals(-2.0f, floats[2], 0);
+        assertArrayEquals(new long[]{0xFFFFFFFEL}, buf.readUnsignedInt(1, WordOrder.ABCD));
+        assertEquals(0, buf.readableBytes());
+    }
+
+    @Test
+    public void bulkReadBeyondReadableFailsWithoutConsuming() {
+        ModbusByteBuf buf = bytes(0, 1, 0, 2, 0, 3);
+        try {
+            buf.readInt(2, WordOrder.ABCD);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+            assertEquals(6, buf.readableBytes());
+        }
+    }
+
+    @Test
+    public void readBitMask() {
+        ModbusByteBuf buf = ModbusByteBuf.wrap(new short[]{0x0001, (short) 0x8000, 0x0003});
+        assertEquals(0x0003_8000_0001L, buf.readBitMask(3));
+        assertEquals(0, buf.readableBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readBitMaskAtMostFourRegisters() {
+        ModbusByteBuf.capacity(10).readBitMask(5);
+    }
+
+    @Test
+    public void readBits() {
+        short[] registers = new short[6];
+        registers[0] = 0x0001;
+        registers[4] = 0x0004;
+        registers[5] = (short) 0x8000;
+        BitSet bits = ModbusByteBuf.wrap(registers).readBits(6);
+        assertEquals(3, bits.cardinality());
+        assertTrue(bits.get(0));
+        assertTrue(bits.get(4 * 16 + 2));
+        assertTrue(bits.get(5 * 16 + 15));
+    }
+
+    @Test
+    public void readBitsReverse() {
+        char[] bits = ModbusByteBuf.wrap(new short[]{(short) 0x8005}).readBitsReverse();
+        assertEquals("1010000000000001", new String(bits));
+    }
+
+    @Test
+    public void readCoilsClearsPadding() {
+        BitSet coils = bytes(0xFF, 0xFF).readCoils(10);
+        assertEquals(10, coils.cardinality());
+        assertEquals(10, coils.length());
+    }
+
+    private static ModbusByteBuf bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return ModbusByteBuf.wrap(bytes);
+    }
+}
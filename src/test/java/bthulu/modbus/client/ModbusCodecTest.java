@@ -0,0 +1,509 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 以EmbeddedChannel验证请求编码与响应解码, 池化与非池化模式各运行一次
+ */
+@RunWith(Parameterized.class)
+public class ModbusCodecTest {
+    private static final String IP_PORT = "127.0.0.1:502";
+    /**
+     * 不测试超时的用例使用较长的超时时间, 避免冷启动的JVM上偶发超时
+     */
+    private static final int TIMEOUT_MS = 1000;
+    private static final int SHORT_TIMEOUT_MS = 50;
+
+    @Parameterized.Parameters(name = "pooled={0}")
+    public static Collection<Object[]> modes() {
+        return Arrays.asList(new Object[]{false}, new Object[]{true});
+    }
+
+    private final boolean pooled;
+    private EmbeddedChannel channel;
+
+    public ModbusCodecTest(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new LengthFieldBasedFrameDecoder(264, 4, 2),
+                new ModbusCodec(TIMEOUT_MS, (address, unitId) -> PacingPolicy.pipeline(8), address -> QueueLimit.unbounded(), pooled));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void readRoundTrip() throws Exception {
+        CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+        channel.writeOutbound(new ReadRequest(IP_PORT, 2, 3, 100, f, 2));
+
+        ByteBuf request = readOutbound();
+        int tid = request.getUnsignedShort(0);
+        assertEquals(0, request.getUnsignedShort(2));
+        assertEquals(6, request.getUnsignedShort(4));
+        assertEquals(2, request.getUnsignedByte(6));
+        assertEquals(3, request.getUnsignedByte(7));
+        assertEquals(100, request.getUnsignedShort(8));
+        assertEquals(2, request.getUnsignedShort(10));
+        request.release();
+
+        channel.writeInbound(response(tid, 2, 3, 4, 0x12, 0x34, 0xFF, 0xFE));
+        assertTrue(f.isDone());
+        ModbusByteBuf buf = f.get();
+        assertEquals(4, buf.readableBytes());
+        assertEquals(0x1234, buf.readUnsignedShort());
+        assertEquals(-2, buf.readShort());
+        buf.release();
+    }
+
+    @Test
+    public void pipelinedResponsesMatchedByTid() throws Exception {
+        CompletableFuture<ModbusByteBuf> f1 = new CompletableFuture<>();
+        CompletableFuture<ModbusByteBuf> f2 = new CompletableFuture<>();
+        channel.writeOutbound(new ReadRequest(IP_PORT, 1, 3, 0, f1, 1));
+        channel.writeOutbound(new ReadRequest(IP_PORT, 1, 3, 10, f2, 1));
+        ByteBuf r1 = readOutbound();
+        ByteBuf r2 = readOutbound();
+        int tid1 = r1.getUnsignedShort(0);
+        int tid2 = r2.getUnsignedShort(0);
+        r1.release();
+        r2.release();
+        assertNotEquals(tid1, tid2);
+
+        // 乱序返回
+        channel.writeInbound(response(tid2, 1, 3, 2, 0, 22));
+        channel.writeInbound(response(tid1, 1, 3, 2, 0, 11));
+        ModbusByteBuf b1 = f1.get();
+        ModbusByteBuf b2 = f2.get();
+        assertEquals(11, b1.readShort());
+        assertEquals(22, b2.readShort());
+        b1.release();
+        b2.release();
+    }
+
+    @Test
+    public void pipelineWindowLimitsInFlight() {
+        replace(TIMEOUT_MS, 2, QueueLimit.unbounded());
+        EndpointMetrics metrics = new EndpointMetrics(IP_PORT, null, null);
+        ReadRequest first = request(metrics);
+        channel.writeOutbound(first);
+        channel.writeOutbound(request(metrics));
+        channel.writeOutbound(request(metrics));
+        assertEquals(2, metrics.getInFlight());
+        assertEquals(1, metrics.getQueued());
+
+        int tid = sentTid();
+        sentTid();
+        assertNull(channel.readOutbound());
+        // 收到一个响应后窗口腾出, 排队的请求立即发送
+        channel.writeInbound(response(tid, 1, 3, 2, 0, 1));
+        assertEquals(2, metrics.getInFlight());
+        assertEquals(0, metrics.getQueued());
+        sentTid();
+        first.future().join().release();
+    }
+
+    @Test
+    public void writeMultipleRegisters() throws Exception {
+        CompletableFuture<Void> f = new CompletableFuture<>();
+        ModbusByteBuf payload = pooled ? ModbusByteBuf.pooled(4).addShort(1, 2) : ModbusByteBuf.wrap(new short[]{1, 2});
+        channel.writeOutbound(new WriteRequest(IP_PORT, 1, 200, f, payload));
+
+        ByteBuf request = readOutbound();
+        int tid = request.getUnsignedShort(0);
+        assertEquals(17, request.readableBytes());
+        assertEquals(16, request.getUnsignedByte(7));
+        assertEquals(200, request.getUnsignedShort(8));
+        assertEquals(2, request.getUnsignedShort(10));
+        assertEquals(4, request.getUnsignedByte(12));
+        assertEquals(1, request.getShort(13));
+        assertEquals(2, request.getShort(15));
+        request.release();
+
+        channel.writeInbound(response(tid, 1, 16, 0, 200, 0, 2));
+        assertTrue(f.isDone());
+        assertNull(f.get());
+    }
+
+    @Test
+    public void exceptionResponse() throws Exception {
+        CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+        channel.writeOutbound(new ReadRequest(IP_PORT, 1, 3, 0, f, 1));
+        ByteBuf request = readOutbound();
+        int tid = request.getUnsignedShort(0);
+        request.release();
+
+        channel.writeInbound(response(tid, 1, 0x83, 2));
+        assertTrue(f.isCompletedExceptionally());
+        try {
+            f.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusException);
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        replace(SHORT_TIMEOUT_MS, 8, QueueLimit.unbounded());
+        CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+        channel.writeOutbound(new ReadRequest(IP_PORT, 1, 3, 0, f, 1));
+        ByteBuf request = readOutbound();
+        int tid = request.getUnsignedShort(0);
+        request.release();
+
+        Thread.sleep(100);
+        channel.runScheduledPendingTasks();
+        assertTrue(f.isCompletedExceptionally());
+
+        // 超时后才到达的响应被丢弃
+        channel.writeInbound(response(tid, 1, 3, 2, 0, 1));
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void tidWrapsAroundSkippingInFlight() {
+        CompletableFuture<ModbusByteBuf> stuck = read(0);
+        assertEquals(0, sentTid());
+        // 其余65535个编号依次使用一轮
+        for (int i = 1; i < 65536; i++) {
+            CompletableFuture<ModbusByteBuf> f = read(0);
+            int tid = sentTid();
+            assertEquals(i, tid);
+            channel.writeInbound(response(tid, 1, 3, 2, 0, 1));
+            f.join().release();
+        }
+        // 回绕后跳过仍在等待响应的0
+        CompletableFuture<ModbusByteBuf> next = read(1);
+        assertEquals(1, sentTid());
+        channel.writeInbound(response(0, 1, 3, 2, 0, 5));
+        assertEquals(5, stuck.join().readShort());
+        assertFalse(next.isDone());
+        stuck.join().release();
+    }
+
+    @Test
+    public void timeoutSweepFreesTid() throws Exception {
+        replace(SHORT_TIMEOUT_MS, 8, QueueLimit.unbounded());
+        CompletableFuture<ModbusByteBuf> lost = read(0);
+        assertEquals(0, sentTid());
+        Thread.sleep(SHORT_TIMEOUT_MS * 2);
+        channel.runScheduledPendingTasks();
+        assertFailed(lost, ModbusException.class);
+
+        for (int i = 1; i < 65536; i++) {
+            CompletableFuture<ModbusByteBuf> f = read(0);
+            respond(0);
+            f.join().release();
+        }
+        // 超时释放的编号在回绕后可再次使用
+        CompletableFuture<ModbusByteBuf> reused = read(0);
+        assertEquals(0, sentTid());
+        channel.writeInbound(response(0, 1, 3, 2, 0, 6));
+        assertEquals(6, reused.join().readShort());
+        reused.join().release();
+    }
+
+    @Test
+    public void unitsShareTidsButQueueSeparately() {
+        channel.finishAndReleaseAll();
+        // 从站1一次只发送一个请求, 从站2可同时有两个请求在途
+        channel = new EmbeddedChannel(new LengthFieldBasedFrameDecoder(264, 4, 2),
+                new ModbusCodec(TIMEOUT_MS, (address, unitId) -> PacingPolicy.pipeline(unitId), address -> QueueLimit.unbounded(), pooled));
+        CompletableFuture<ModbusByteBuf> a1 = read(1, 10);
+        CompletableFuture<ModbusByteBuf> a2 = read(1, 11);
+        CompletableFuture<ModbusByteBuf> b1 = read(2, 20);
+        CompletableFuture<ModbusByteBuf> b2 = read(2, 21);
+        CompletableFuture<ModbusByteBuf> b3 = read(2, 22);
+
+        // 从站1排队不影响从站2发送, 事务编号在同一连接内统一分配
+        assertSent(0, 1, 10);
+        assertSent(1, 2, 20);
+        assertSent(2, 2, 21);
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(response(1, 2, 3, 2, 0, 20));
+        assertEquals(20, b1.join().readShort());
+        assertSent(3, 2, 22);
+        assertFalse(a1.isDone());
+
+        channel.writeInbound(response(0, 1, 3, 2, 0, 10));
+        assertEquals(10, a1.join().readShort());
+        assertSent(4, 1, 11);
+
+        channel.writeInbound(response(4, 1, 3, 2, 0, 11));
+        channel.writeInbound(response(2, 2, 3, 2, 0, 21));
+        channel.writeInbound(response(3, 2, 3, 2, 0, 22));
+        assertEquals(11, a2.join().readShort());
+        assertEquals(21, b2.join().readShort());
+        assertEquals(22, b3.join().readShort());
+        for (CompletableFuture<ModbusByteBuf> f : Arrays.asList(a1, a2, b1, b2, b3)) {
+            f.join().release();
+        }
+    }
+
+    @Test
+    public void connectionClosedFailsPending() {
+        CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+        channel.writeOutbound(new ReadRequest(IP_PORT, 1, 3, 0, f, 1));
+        readOutbound().release();
+        channel.close();
+        assertTrue(f.isCompletedExceptionally());
+    }
+
+    @Test
+    public void cancelFreesTid() {
+        EndpointMetrics metrics = new EndpointMetrics(IP_PORT, null, null);
+        ReadRequest request = request(metrics);
+        request.cancellable = true;
+        channel.writeOutbound(request);
+        int tid = readOutbound().getUnsignedShort(0);
+        assertEquals(1, metrics.getInFlight());
+
+        request.future().cancel(false);
+        channel.runPendingTasks();
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(1, metrics.getCancelled());
+
+        // 取消后到达的响应按迟到响应丢弃
+        ByteBuf late = response(tid, 1, 3, 2, 0, 1);
+        channel.writeInbound(late);
+        assertEquals(1, metrics.getLateResponses());
+        assertEquals(0, late.refCnt());
+    }
+
+    @Test
+    public void responseBeforeCancelTaskReleased() {
+        EndpointMetrics metrics = new EndpointMetrics(IP_PORT, null, null);
+        ReadRequest request = request(metrics);
+        request.cancellable = true;
+        channel.writeOutbound(request);
+        int tid = readOutbound().getUnsignedShort(0);
+
+        // 取消任务排在响应之后执行, 响应仍匹配到已取消的请求
+        request.future().cancel(false);
+        ByteBuf response = response(tid, 1, 3, 2, 0, 1);
+        channel.writeInbound(response);
+        assertEquals(0, response.refCnt());
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(0, metrics.getLateResponses());
+    }
+
+    @Test
+    public void metricsSharedByTwoCodecs() {
+        // 对冲读取时同一设备的两个连接共用一个指标对象
+        EndpointMetrics metrics = new EndpointMetrics(IP_PORT, null, null);
+        EmbeddedChannel hedge = new EmbeddedChannel(new LengthFieldBasedFrameDecoder(264, 4, 2),
+                new ModbusCodec(TIMEOUT_MS, (address, unitId) -> PacingPolicy.pipeline(1), address -> QueueLimit.unbounded(), pooled));
+        try {
+            channel.writeOutbound(request(metrics));
+            hedge.writeOutbound(request(metrics));
+            hedge.writeOutbound(request(metrics));
+            assertEquals(2, metrics.getInFlight());
+            assertEquals(1, metrics.getQueued());
+
+            ByteBuf sent = readOutbound();
+            int tid = sent.getUnsignedShort(0);
+            sent.release();
+            channel.writeInbound(response(tid, 1, 3, 2, 0, 1));
+            assertEquals(1, metrics.getInFlight());
+            assertEquals(1, metrics.getQueued());
+
+            hedge.close();
+            assertEquals(0, metrics.getInFlight());
+            assertEquals(0, metrics.getQueued());
+        } finally {
+            hedge.finishAndReleaseAll();
+        }
+    }
+
+    @Test
+    public void fullQueueRejectsNewRequest() {
+        serial(TIMEOUT_MS, QueueLimit.reject(1));
+        CompletableFuture<ModbusByteBuf> sent = read(0);
+        CompletableFuture<ModbusByteBuf> queued = read(1);
+        CompletableFuture<ModbusByteBuf> rejected = read(2);
+        assertFailed(rejected, RejectedRequestException.class);
+        assertFalse(queued.isDone());
+
+        respond(0);
+        sent.join().release();
+        assertEquals(1, respond(0));
+        queued.join().release();
+    }
+
+    @Test
+    public void fullQueueDropsOldest() {
+        serial(TIMEOUT_MS, QueueLimit.dropOldest(1));
+        read(0).thenAccept(ModbusByteBuf::release);
+        CompletableFuture<ModbusByteBuf> dropped = read(1);
+        CompletableFuture<ModbusByteBuf> queued = read(2);
+        assertFailed(dropped, RejectedRequestException.class);
+        assertFalse(queued.isDone());
+
+        respond(0);
+        assertEquals(2, respond(0));
+        queued.join().release();
+    }
+
+    @Test
+    public void urgentSentBeforePending() {
+        serial(TIMEOUT_MS, QueueLimit.reject(2));
+        read(0).thenAccept(ModbusByteBuf::release);
+        CompletableFuture<ModbusByteBuf> normal = read(1);
+        CompletableFuture<ModbusByteBuf> urgent = urgent(2);
+        assertFalse(normal.isDone());
+        // 队列已满, 高优先级请求不受拒绝策略限制, 挤掉最早的普通请求
+        CompletableFuture<ModbusByteBuf> second = urgent(3);
+        assertFailed(normal, RejectedRequestException.class);
+
+        respond(0);
+        assertEquals(2, respond(0));
+        urgent.join().release();
+        assertEquals(3, respond(0));
+        second.join().release();
+    }
+
+    @Test
+    public void staleQueuedReadExpires() throws Exception {
+        serial(SHORT_TIMEOUT_MS, QueueLimit.unbounded());
+        read(0).thenAccept(ModbusByteBuf::release);
+        CompletableFuture<ModbusByteBuf> stale = read(1);
+        CompletableFuture<Void> write = new CompletableFuture<>();
+        channel.writeOutbound(new WriteRequest(IP_PORT, 1, 2, write, ModbusByteBuf.wrap(new short[]{1})));
+
+        // 在途请求响应前, 排队的读取和写入都已超过请求超时时间
+        Thread.sleep(100);
+        respond(0);
+        // 写入仍然发送, 过时的读取不再发送
+        ByteBuf request = readOutbound();
+        assertEquals(16, request.getUnsignedByte(7));
+        request.release();
+        assertNull(channel.readOutbound());
+        assertFailed(stale, ModbusException.class);
+        assertFalse(write.isDone());
+    }
+
+    /**
+     * 替换为一次只发送一个请求的连接, 后续请求在队列中等待
+     */
+    private void serial(int requestTimeoutMs, QueueLimit limit) {
+        replace(requestTimeoutMs, 1, limit);
+    }
+
+    /**
+     * @param maxInFlight 每个从站最多同时等待响应的请求数
+     */
+    private void replace(int requestTimeoutMs, int maxInFlight, QueueLimit limit) {
+        channel.finishAndReleaseAll();
+        channel = new EmbeddedChannel(new LengthFieldBasedFrameDecoder(264, 4, 2),
+                new ModbusCodec(requestTimeoutMs, (address, unitId) -> PacingPolicy.pipeline(maxInFlight), address -> limit, pooled));
+    }
+
+    private CompletableFuture<ModbusByteBuf> urgent(int address) {
+        ReadRequest request = new ReadRequest(IP_PORT, 1, 3, address, new CompletableFuture<>(), 1);
+        request.priority = Priority.HIGH;
+        channel.writeOutbound(request);
+        return request.future();
+    }
+
+    private CompletableFuture<ModbusByteBuf> read(int address) {
+        return read(1, address);
+    }
+
+    private CompletableFuture<ModbusByteBuf> read(int unitId, int address) {
+        CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+        channel.writeOutbound(new ReadRequest(IP_PORT, unitId, 3, address, f, 1));
+        return f;
+    }
+
+    private void assertSent(int tid, int unitId, int address) {
+        ByteBuf request = readOutbound();
+        assertEquals(tid, request.getUnsignedShort(0));
+        assertEquals(unitId, request.getUnsignedByte(6));
+        assertEquals(address, request.getUnsignedShort(8));
+        request.release();
+    }
+
+    /**
+     * @return 下一个已发送请求的事务编号
+     */
+    private int sentTid() {
+        ByteBuf request = readOutbound();
+        int tid = request.getUnsignedShort(0);
+        request.release();
+        return tid;
+    }
+
+    /**
+     * 响应下一个已发送的读取请求
+     *
+     * @return 该请求的起始地址
+     */
+    private int respond(int value) {
+        ByteBuf request = readOutbound();
+        int tid = request.getUnsignedShort(0);
+        int address = request.getUnsignedShort(8);
+        request.release();
+        channel.writeInbound(response(tid, 1, 3, 2, 0, value));
+        return address;
+    }
+
+    private static void assertFailed(CompletableFuture<?> f, Class<? extends Throwable> type) {
+        assertTrue(f.isCompletedExceptionally());
+        try {
+            f.join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause().toString(), type.isInstance(e.getCause()));
+        }
+    }
+
+    private static ReadRequest request(EndpointMetrics metrics) {
+        ReadRequest request = new ReadRequest(IP_PORT, 1, 3, 0, new CompletableFuture<>(), 1);
+        request.metrics = metrics;
+        return request;
+    }
+
+    private ByteBuf readOutbound() {
+        ByteBuf buf = channel.readOutbound();
+        assertNotNull(buf);
+        // 池化模式下报文头与数据以组合缓冲区发送, 统一复制为连续缓冲区便于断言
+        ByteBuf copy = Unpooled.copiedBuffer(buf);
+        buf.release();
+        return copy;
+    }
+
+    /**
+     * @param pdu 功能码之后的字节
+     */
+    private static ByteBuf response(int tid, int unitId, int functionCode, int... pdu) {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeShort(tid).writeShort(0).writeShort(pdu.length + 2).writeByte(unitId).writeByte(functionCode);
+        for (int b : pdu) {
+            buf.writeByte(b);
+        }
+        return buf;
+    }
+}
@@ -0,0 +1,97 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 以本机从站验证超时重试, 从站丢弃前dropped个请求不响应
+ */
+public class ModbusMasterTest {
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger received = new AtomicInteger();
+    private LocalSlave slave;
+    private ModbusMaster master;
+    private ModbusEndpoint endpoint;
+
+    @Before
+    public void setUp() throws Exception {
+        slave = new LocalSlave() {
+            @Override
+            protected void respond(ChannelHandlerContext ctx, ByteBuf in, int connection) {
+                received.incrementAndGet();
+                if (dropped.getAndDecrement() > 0) {
+                    return;
+                }
+                super.respond(ctx, in, connection);
+            }
+        };
+        master = new ModbusMaster(1, 60, 3, new NioEventLoopGroup(1));
+        endpoint = master.endpoint(slave.address());
+    }
+
+    @After
+    public void tearDown() {
+        master.close();
+        slave.close();
+    }
+
+    @Test
+    public void writeRetriedAfterTimeout() throws Exception {
+        dropped.set(1);
+        ModbusByteBuf buf = ModbusByteBuf.pooled(4).addShort(7, 8);
+        master.writeAsync(endpoint, 10, buf, 1).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, received.get());
+        assertEquals(7, slave.registers[10]);
+        assertEquals(8, slave.registers[11]);
+        assertReleased(buf);
+    }
+
+    @Test
+    public void readWriteRetriedAfterTimeout() throws Exception {
+        dropped.set(1);
+        slave.registers[0] = 42;
+        ModbusByteBuf buf = ModbusByteBuf.pooled(2).addShort(9);
+        ModbusByteBuf result = master.readWriteAsync(endpoint, 0, 1, 20, buf).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, received.get());
+        assertEquals(42, result.readShort());
+        assertEquals(9, slave.registers[20]);
+        assertReleased(buf);
+        result.release();
+    }
+
+    @Test
+    public void payloadReleasedWhenRetriesExhausted() throws Exception {
+        dropped.set(2);
+        ModbusByteBuf buf = ModbusByteBuf.pooled(2).addShort(1);
+        try {
+            master.writeAsync(endpoint, 0, buf, 1).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusException);
+        }
+        assertEquals(2, received.get());
+        assertReleased(buf);
+    }
+
+    /**
+     * 写入数据在结果回调中释放, 可能晚于等待方被唤醒
+     */
+    private static void assertReleased(ModbusByteBuf buf) throws InterruptedException {
+        for (int i = 0; i < 100 && buf.delegate().refCnt() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, buf.delegate().refCnt());
+    }
+}
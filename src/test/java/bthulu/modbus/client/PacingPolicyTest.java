@@ -0,0 +1,57 @@
+package bthulu.modbus.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 发送节奏控制的时间均由调用方传入, 以虚拟时间验证
+ */
+public class PacingPolicyTest {
+    @Test
+    public void pipelineWindow() {
+        PacingPolicy pacing = PacingPolicy.pipeline(3);
+        for (int inFlight = 0; inFlight < 3; inFlight++) {
+            assertEquals(0, pacing.delayMs(0, inFlight));
+            pacing.onSend(0);
+        }
+        // 窗口已满, 等待响应而非等待时间
+        assertEquals(-1, pacing.delayMs(0, 3));
+        assertEquals(-1, pacing.delayMs(Long.MAX_VALUE / 2, 3));
+        pacing.onComplete(1);
+        assertEquals(0, pacing.delayMs(1, 2));
+    }
+
+    @Test
+    public void fixedInterval() {
+        PacingPolicy pacing = PacingPolicy.fixedInterval(5);
+        long now = 1000;
+        assertEquals(0, pacing.delayMs(now, 0));
+        pacing.onSend(now);
+        assertEquals(5, pacing.delayMs(now, 0));
+        assertEquals(3, pacing.delayMs(now + 2, 0));
+        assertEquals(0, pacing.delayMs(now + 5, 0));
+        // 不限制在途请求数量, 设备反馈不影响间隔
+        assertEquals(0, pacing.delayMs(now + 5, 100));
+        pacing.onBusy(now + 5);
+        pacing.onTimeout(now + 5);
+        assertEquals(0, pacing.delayMs(now + 5, 0));
+    }
+
+    @Test
+    public void zeroIntervalNeverWaits() {
+        PacingPolicy pacing = PacingPolicy.fixedInterval(0);
+        pacing.onSend(10);
+        assertEquals(0, pacing.delayMs(10, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pipelineRequiresPositiveWindow() {
+        PacingPolicy.pipeline(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fixedIntervalRejectsNegative() {
+        PacingPolicy.fixedInterval(-1);
+    }
+}
@@ -0,0 +1,218 @@
+package bthulu.modbus.client;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 以截获读取请求的ModbusMaster验证按需读取, 结果合并, 取消及关闭, 由测试控制每个读取何时完成
+ */
+public class PollingPublisherTest {
+    /**
+     * 实际发出的读取请求, 依次完成
+     */
+    private final List<CompletableFuture<ModbusByteBuf>> reads = new CopyOnWriteArrayList<>();
+    private ModbusMaster master;
+    private ModbusEndpoint endpoint;
+    private EventLoop eventLoop;
+    private PollingPublisher publisher;
+
+    @Before
+    public void setUp() {
+        master = new ModbusMaster(1, 60, 3, new NioEventLoopGroup(1)) {
+            @Override
+            public CompletableFuture<ModbusByteBuf> readAsync(ModbusEndpoint endpoint, int address, int count) {
+                CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+                reads.add(f);
+                return f;
+            }
+        };
+        endpoint = master.endpoint("127.0.0.1:502");
+        eventLoop = master.eventLoop(endpoint);
+        publisher = new PollingPublisher(master, endpoint, 0, 1, 0);
+    }
+
+    @After
+    public void tearDown() {
+        publisher.close();
+        master.close();
+    }
+
+    @Test
+    public void noReadsWithoutDemand() throws Exception {
+        TestSubscriber subscriber = subscribe();
+        Thread.sleep(50);
+        sync();
+        assertEquals(0, publisher.reads());
+        assertTrue(reads.isEmpty());
+
+        subscriber.subscription.request(1);
+        sync();
+        assertEquals(1, reads.size());
+        complete(0, 7);
+        assertEquals(1, subscriber.values.size());
+        assertEquals(7, (int) subscriber.values.get(0));
+        // 需求已满足, 不再读取
+        Thread.sleep(50);
+        sync();
+        assertEquals(1, reads.size());
+    }
+
+    @Test
+    public void idleSubscriberConflatesToLatest() throws Exception {
+        TestSubscriber idle = subscribe();
+        TestSubscriber eager = subscribe();
+        eager.subscription.request(Long.MAX_VALUE);
+        sync();
+
+        ModbusByteBuf first = complete(0, 1);
+        ModbusByteBuf second = complete(1, 2);
+        assertEquals(2, eager.values.size());
+        // 没有需求的订阅方只保留最新结果, 旧结果已释放
+        assertEquals(0, first.delegate().refCnt());
+        assertEquals(1, second.delegate().refCnt());
+        assertTrue(idle.values.isEmpty());
+
+        idle.subscription.request(1);
+        sync();
+        assertEquals(2, (int) idle.values.get(0));
+        assertEquals(0, second.delegate().refCnt());
+    }
+
+    @Test
+    public void cancelDuringDelivery() throws Exception {
+        TestSubscriber first = subscribe();
+        TestSubscriber second = subscribe();
+        // 第一个订阅方在收到结果时取消自己及另一个订阅方, 同一轮分发中后者不再收到
+        first.onNext = value -> {
+            first.subscription.cancel();
+            second.subscription.cancel();
+        };
+        first.subscription.request(Long.MAX_VALUE);
+        second.subscription.request(Long.MAX_VALUE);
+        sync();
+
+        ModbusByteBuf result = complete(0, 1);
+        assertEquals(1, first.values.size());
+        assertTrue(second.values.isEmpty());
+        assertEquals(0, result.delegate().refCnt());
+        // 已没有订阅方, 不再读取
+        Thread.sleep(50);
+        sync();
+        assertEquals(1, reads.size());
+    }
+
+    @Test
+    public void closeCompletesSubscribers() throws Exception {
+        TestSubscriber idle = subscribe();
+        TestSubscriber eager = subscribe();
+        eager.subscription.request(1);
+        sync();
+        ModbusByteBuf result = complete(0, 1);
+        assertEquals(1, result.delegate().refCnt());
+
+        publisher.close();
+        sync();
+        assertTrue(idle.completed);
+        assertTrue(eager.completed);
+        // 未投递的最新结果在关闭时释放
+        assertEquals(0, result.delegate().refCnt());
+
+        TestSubscriber late = subscribe();
+        assertTrue(late.completed);
+        late.subscription.request(1);
+        sync();
+        assertEquals(1, reads.size());
+    }
+
+    @Test
+    public void failureRetriedAfterDelay() throws Exception {
+        TestSubscriber subscriber = subscribe();
+        subscriber.subscription.request(1);
+        sync();
+        long start = System.nanoTime();
+        reads.get(0).completeExceptionally(new ModbusException("time out"));
+        sync();
+        assertEquals(1, publisher.failures());
+        assertFalse(subscriber.completed);
+
+        while (reads.size() < 2) {
+            Thread.sleep(10);
+        }
+        assertTrue(System.nanoTime() - start >= 100_000_000L);
+        complete(1, 3);
+        assertEquals(3, (int) subscriber.values.get(0));
+    }
+
+    private TestSubscriber subscribe() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        sync();
+        return subscriber;
+    }
+
+    /**
+     * 以给定值完成第index个读取请求, 并等待结果分发完毕
+     *
+     * @return 该请求的结果, 用于检查引用计数
+     */
+    private ModbusByteBuf complete(int index, int value) throws Exception {
+        ModbusByteBuf buf = ModbusByteBuf.wrap(new short[]{(short) value});
+        reads.get(index).complete(buf);
+        sync();
+        return buf;
+    }
+
+    /**
+     * 等待之前提交到EventLoop的任务执行完毕
+     */
+    private void sync() throws Exception {
+        eventLoop.submit(() -> {
+        }).sync();
+    }
+
+    /**
+     * 记录收到的值, 收到后立即释放
+     */
+    private static class TestSubscriber implements Subscriber<ModbusByteBuf> {
+        final List<Integer> values = new CopyOnWriteArrayList<>();
+        volatile Subscription subscription;
+        volatile boolean completed;
+        volatile Consumer<Integer> onNext = value -> {
+        };
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ModbusByteBuf buf) {
+            int value = buf.readShort();
+            buf.release();
+            values.add(value);
+            onNext.accept(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new AssertionError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package bthulu.modbus.client;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class ReadBatchTest {
+
+    @Test
+    public void adjacentRangesMerged() {
+        ReadBatch batch = ReadBatch.create().add(0, 10).add(10, 10);
+        List<ReadBatch.Block> plan = batch.plan();
+        assertEquals(1, plan.size());
+        assertBlock(plan.get(0), 0, 20, 0, 1);
+    }
+
+    @Test
+    public void gapWithinMaxGapMerged() {
+        assertEquals(2, ReadBatch.create().add(0, 10).add(11, 5).requestCount());
+
+        List<ReadBatch.Block> plan = ReadBatch.maxGap(1).add(0, 10).add(11, 5).plan();
+        assertEquals(1, plan.size());
+        assertBlock(plan.get(0), 0, 16, 0, 1);
+    }
+
+    @Test
+    public void unorderedAndOverlappingRanges() {
+        List<ReadBatch.Block> plan = ReadBatch.create().add(50, 10).add(0, 10).add(5, 10).add(2, 3).plan();
+        assertEquals(2, plan.size());
+        assertBlock(plan.get(0), 0, 15, 1, 3, 2);
+        assertBlock(plan.get(1), 50, 10, 0);
+    }
+
+    @Test
+    public void splitAtMaxRegisters() {
+        List<ReadBatch.Block> plan = ReadBatch.maxGap(10).add(0, 100).add(100, 25).add(125, 1).plan();
+        assertEquals(2, plan.size());
+        assertBlock(plan.get(0), 0, ReadBatch.MAX_REGISTERS, 0, 1);
+        assertBlock(plan.get(1), 125, 1, 2);
+    }
+
+    @Test
+    public void planCachedUntilAdd() {
+        ReadBatch batch = ReadBatch.create().add(0, 1);
+        List<ReadBatch.Block> plan = batch.plan();
+        assertSame(plan, batch.plan());
+
+        batch.add(100, 1);
+        assertNotSame(plan, batch.plan());
+        assertEquals(2, batch.requestCount());
+        assertEquals(2, batch.size());
+        assertEquals(100, batch.address(1));
+        assertEquals(1, batch.count(1));
+    }
+
+    @Test
+    public void splitFollowsAddedOrder() throws Exception {
+        ReadBatch batch = ReadBatch.create().add(50, 1).add(0, 2).add(1, 2);
+        List<ReadBatch.Block> plan = batch.plan();
+        CompletableFuture<ModbusByteBuf>[] futures = futures(plan.size());
+        ModbusByteBuf low = ModbusByteBuf.wrap(new short[]{10, 11, 12});
+        ModbusByteBuf high = ModbusByteBuf.wrap(new short[]{60});
+        CompletableFuture<List<ModbusByteBuf>> f = batch.split(plan, futures);
+        futures[0].complete(low);
+        futures[1].complete(high);
+
+        List<ModbusByteBuf> results = f.get();
+        assertEquals(60, results.get(0).readShort());
+        assertArrayEquals(new short[]{10, 11}, results.get(1).readShort(2));
+        assertArrayEquals(new short[]{11, 12}, results.get(2).readShort(2));
+        // 各结果持有响应的一个引用, 全部释放后响应随之释放
+        for (ModbusByteBuf result : results) {
+            result.release();
+        }
+        assertEquals(0, low.delegate().refCnt());
+        assertEquals(0, high.delegate().refCnt());
+    }
+
+    @Test
+    public void failedRequestReleasesCompletedResponses() {
+        ReadBatch batch = ReadBatch.create().add(0, 1).add(50, 1).add(100, 1);
+        List<ReadBatch.Block> plan = batch.plan();
+        CompletableFuture<ModbusByteBuf>[] futures = futures(plan.size());
+        ModbusByteBuf first = ModbusByteBuf.wrap(new short[]{1});
+        ModbusByteBuf last = ModbusByteBuf.wrap(new short[]{3});
+        CompletableFuture<List<ModbusByteBuf>> f = batch.split(plan, futures);
+        futures[0].complete(first);
+        futures[1].completeExceptionally(new ModbusException("time out"));
+        assertFalse(f.isDone());
+        assertEquals(1, first.delegate().refCnt());
+
+        // 失败之后才完成的请求同样释放
+        futures[2].complete(last);
+        assertTrue(f.isCompletedExceptionally());
+        assertEquals(0, first.delegate().refCnt());
+        assertEquals(0, last.delegate().refCnt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalAddress() {
+        ReadBatch.create().add(0x10000, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalCount() {
+        ReadBatch.create().add(0, 0);
+    }
+
+    @Test(expected = ModbusException.class)
+    public void tooManyRegisters() {
+        ReadBatch.create().add(0, ReadBatch.MAX_REGISTERS + 1);
+    }
+
+    private static void assertBlock(ReadBatch.Block block, int address, int count, int... specs) {
+        assertEquals(address, block.address);
+        assertEquals(count, block.count);
+        assertEquals(specs.length, block.specCount);
+        for (int i = 0; i < specs.length; i++) {
+            assertEquals(specs[i], block.specs[i]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<ModbusByteBuf>[] futures(int size) {
+        CompletableFuture<ModbusByteBuf>[] futures = new CompletableFuture[size];
+        for (int i = 0; i < size; i++) {
+            futures[i] = new CompletableFuture<>();
+        }
+        return futures;
+    }
+}
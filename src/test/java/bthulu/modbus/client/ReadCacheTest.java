@@ -0,0 +1,212 @@
+package bthulu.modbus.client;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * 以截获读写请求的ModbusMaster验证读取合并, 引用计数及缓存失效, 由测试控制每个请求何时完成
+ */
+public class ReadCacheTest {
+    /**
+     * 实际发出的读取请求, 依次完成
+     */
+    private final List<CompletableFuture<ModbusByteBuf>> reads = new ArrayList<>();
+    private ModbusMaster master;
+    private ModbusEndpoint endpoint;
+    private ReadCache cache;
+
+    @Before
+    public void setUp() {
+        master = new ModbusMaster(1, 60, 3, new NioEventLoopGroup(1)) {
+            @Override
+            public CompletableFuture<ModbusByteBuf> readAsync(ModbusEndpoint endpoint, int address, int count) {
+                CompletableFuture<ModbusByteBuf> f = new CompletableFuture<>();
+                reads.add(f);
+                return f;
+            }
+
+            @Override
+            public CompletableFuture<Void> writeAsync(ModbusEndpoint endpoint, int address, ModbusByteBuf buf) {
+                buf.release();
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        endpoint = master.endpoint("127.0.0.1:502");
+        cache = new ReadCache(master, 50, 2);
+    }
+
+    @After
+    public void tearDown() {
+        master.close();
+    }
+
+    @Test
+    public void concurrentReadsShareOneRequest() {
+        CompletableFuture<ModbusByteBuf> f1 = cache.readAsync(endpoint, 0, 2);
+        CompletableFuture<ModbusByteBuf> f2 = cache.readAsync(endpoint, 0, 2);
+        CompletableFuture<ModbusByteBuf> f3 = cache.readAsync(endpoint, 0, 2);
+        assertEquals(1, reads.size());
+        assertFalse(f1.isDone());
+
+        ModbusByteBuf result = complete(0, 7, 8);
+        // 每个调用方各有独立的读取位置
+        ModbusByteBuf b1 = f1.join();
+        ModbusByteBuf b2 = f2.join();
+        assertEquals(7, b1.readShort());
+        assertEquals(7, b2.readShort());
+        assertEquals(8, b2.readShort());
+        assertEquals(7, f3.join().readShort());
+
+        // 缓存与三个调用方各持有一份引用
+        assertEquals(4, result.delegate().refCnt());
+        b1.release();
+        b2.release();
+        f3.join().release();
+        assertEquals(1, result.delegate().refCnt());
+        cache.clear();
+        assertEquals(0, result.delegate().refCnt());
+    }
+
+    @Test
+    public void threadsJoinInFlightRead() throws Exception {
+        List<CompletableFuture<ModbusByteBuf>> futures = new CopyOnWriteArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                futures.add(cache.readAsync(endpoint, 0, 1));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, reads.size());
+
+        ModbusByteBuf result = complete(0, 5);
+        for (CompletableFuture<ModbusByteBuf> f : futures) {
+            ModbusByteBuf buf = f.join();
+            assertEquals(5, buf.readShort());
+            buf.release();
+        }
+        assertEquals(1, result.delegate().refCnt());
+    }
+
+    @Test
+    public void freshResultServedFromCacheUntilExpired() throws Exception {
+        CompletableFuture<ModbusByteBuf> first = cache.readAsync(endpoint, 0, 1);
+        ModbusByteBuf result = complete(0, 1);
+        first.join().release();
+
+        ModbusByteBuf cached = cache.readAsync(endpoint, 0, 1).join();
+        assertEquals(1, reads.size());
+        assertEquals(1, cached.readShort());
+        cached.release();
+
+        Thread.sleep(80);
+        CompletableFuture<ModbusByteBuf> reloaded = cache.readAsync(endpoint, 0, 1);
+        assertEquals(2, reads.size());
+        // 过期的结果在重新读取时释放
+        assertEquals(0, result.delegate().refCnt());
+        complete(1, 2);
+        assertEquals(2, reloaded.join().readShort());
+        reloaded.join().release();
+    }
+
+    @Test
+    public void writeInvalidatesOverlappingRanges() {
+        CompletableFuture<ModbusByteBuf> overlapping = cache.readAsync(endpoint, 0, 4);
+        CompletableFuture<ModbusByteBuf> disjoint = cache.readAsync(endpoint, 10, 1);
+        ModbusByteBuf first = complete(0, 1, 2, 3, 4);
+        ModbusByteBuf second = complete(1, 5);
+        overlapping.join().release();
+        disjoint.join().release();
+
+        cache.writeAsync(endpoint, 3, ModbusByteBuf.wrap(new short[]{9})).join();
+        assertEquals(0, first.delegate().refCnt());
+        assertEquals(1, second.delegate().refCnt());
+
+        cache.readAsync(endpoint, 10, 1).join().release();
+        assertEquals(2, reads.size());
+        CompletableFuture<ModbusByteBuf> reloaded = cache.readAsync(endpoint, 0, 4);
+        assertEquals(3, reads.size());
+        complete(2, 1, 2, 3, 9);
+        reloaded.join().release();
+    }
+
+    @Test
+    public void evictedWhileLoadingReleasedOnCompletion() {
+        CompletableFuture<ModbusByteBuf> f = cache.readAsync(endpoint, 0, 1);
+        cache.invalidate(endpoint, 0, 1);
+        ModbusByteBuf result = complete(0, 3);
+        ModbusByteBuf buf = f.join();
+        assertEquals(3, buf.readShort());
+        assertEquals(1, result.delegate().refCnt());
+        buf.release();
+        assertEquals(0, result.delegate().refCnt());
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() {
+        CompletableFuture<ModbusByteBuf> f1 = cache.readAsync(endpoint, 0, 1);
+        CompletableFuture<ModbusByteBuf> f2 = cache.readAsync(endpoint, 1, 1);
+        ModbusByteBuf first = complete(0, 0);
+        ModbusByteBuf second = complete(1, 1);
+        f1.join().release();
+        f2.join().release();
+        cache.readAsync(endpoint, 0, 1).join().release();
+
+        // 超出2个条目上限, 淘汰最久未使用的地址1
+        CompletableFuture<ModbusByteBuf> f3 = cache.readAsync(endpoint, 2, 1);
+        assertEquals(0, second.delegate().refCnt());
+        assertEquals(1, first.delegate().refCnt());
+        complete(2, 2);
+        f3.join().release();
+    }
+
+    @Test
+    public void failureNotCached() {
+        CompletableFuture<ModbusByteBuf> f1 = cache.readAsync(endpoint, 0, 1);
+        CompletableFuture<ModbusByteBuf> f2 = cache.readAsync(endpoint, 0, 1);
+        reads.get(0).completeExceptionally(new ModbusException("time out"));
+        assertTrue(f1.isCompletedExceptionally());
+        assertTrue(f2.isCompletedExceptionally());
+
+        CompletableFuture<ModbusByteBuf> retried = cache.readAsync(endpoint, 0, 1);
+        assertEquals(2, reads.size());
+        complete(1, 1);
+        retried.join().release();
+    }
+
+    /**
+     * 以给定的寄存器值完成第index个读取请求
+     *
+     * @return 该请求的结果, 用于检查引用计数
+     */
+    private ModbusByteBuf complete(int index, int... values) {
+        short[] registers = new short[values.length];
+        for (int i = 0; i < values.length; i++) {
+            registers[i] = (short) values[i];
+        }
+        ModbusByteBuf buf = ModbusByteBuf.wrap(registers);
+        reads.get(index).complete(buf);
+        return buf;
+    }
+}
@@ -0,0 +1,216 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordReaderTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+    private ModbusEndpoint first;
+    private ModbusEndpoint second;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.getRoot().toPath();
+        ModbusConnection connection = new ModbusConnection("127.0.0.1:502", null,
+                new CircuitBreaker.Settings(1000, (breaker, delayMs) -> {
+                }), null);
+        first = connection.endpoint(1);
+        second = connection.endpoint(2);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        long from = System.currentTimeMillis();
+        try (RegisterRecorder recorder = new RegisterRecorder(dir)) {
+            recorder.append(first, 100, ModbusByteBuf.wrap(new short[]{1, 2, 3}));
+            recorder.append(second, 0, ModbusByteBuf.wrap(new short[]{-1}));
+            // 从报文中间复制, 不改变读写位置
+            ByteBuf frame = Unpooled.buffer().writeByte(4).writeBytes(new byte[]{0, 9, 0, 8, 0, 7, 0, 6, 0, 5});
+            recorder.append(first, 4, 200, frame, 1, 10);
+            assertEquals(0, frame.readerIndex());
+            assertEquals(3, recorder.records());
+            assertEquals(3 * RegisterRecorder.RECORD_HEADER + 6 + 2 + 10, recorder.bytes());
+        }
+        long to = System.currentTimeMillis() + 1;
+
+        try (RecordReader reader = new RecordReader(dir, from, to)) {
+            assertTrue(reader.next());
+            assertEquals(first.toString(), reader.endpoint());
+            assertEquals(3, reader.functionCode());
+            assertEquals(100, reader.address());
+            assertEquals(3, reader.count());
+            assertEquals(3, reader.getShort(2));
+            assertTrue(reader.timestamp() >= from && reader.timestamp() < to);
+
+            assertTrue(reader.next());
+            assertEquals(second.toString(), reader.endpoint());
+            assertEquals(0xFFFF, reader.getUnsignedShort(0));
+
+            assertTrue(reader.next());
+            assertEquals(4, reader.functionCode());
+            assertEquals(200, reader.address());
+            assertEquals(5, reader.count());
+            ModbusByteBuf data = reader.data();
+            assertArrayEquals(new short[]{9, 8, 7, 6, 5}, data.readShort(5));
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void timeRange() throws Exception {
+        try (RegisterRecorder recorder = new RegisterRecorder(dir)) {
+            recorder.append(first, 1, ModbusByteBuf.wrap(new short[]{1}));
+            Thread.sleep(20);
+            recorder.append(first, 2, ModbusByteBuf.wrap(new short[]{2}));
+        }
+        List<Long> timestamps = new ArrayList<>();
+        try (RecordReader reader = new RecordReader(dir, 0, Long.MAX_VALUE)) {
+            while (reader.next()) {
+                timestamps.add(reader.timestamp());
+            }
+        }
+        assertEquals(2, timestamps.size());
+
+        try (RecordReader reader = new RecordReader(dir, timestamps.get(1), Long.MAX_VALUE)) {
+            assertTrue(reader.next());
+            assertEquals(2, reader.address());
+            assertFalse(reader.next());
+        }
+        try (RecordReader reader = new RecordReader(dir, 0, timestamps.get(1))) {
+            assertTrue(reader.next());
+            assertEquals(1, reader.address());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void rollAndReopen() throws Exception {
+        int segmentBytes = 1024;
+        int written = 0;
+        try (RegisterRecorder recorder = new RegisterRecorder(dir, segmentBytes, 3600_000L, Long.MAX_VALUE)) {
+            for (int i = 0; i < 30; i++) {
+                written += appendUntilRecorded(recorder, first, i);
+            }
+            assertEquals(written, recorder.records());
+        }
+        assertTrue(RegisterRecorder.segments(dir).size() > 1);
+
+        // 重新打开后继续编号, 设备编号不变
+        try (RegisterRecorder recorder = new RegisterRecorder(dir, segmentBytes, 3600_000L, Long.MAX_VALUE)) {
+            written += appendUntilRecorded(recorder, second, 30);
+            written += appendUntilRecorded(recorder, first, 31);
+        }
+
+        List<Integer> addresses = new ArrayList<>();
+        List<String> endpoints = new ArrayList<>();
+        try (RecordReader reader = new RecordReader(dir, 0, Long.MAX_VALUE)) {
+            while (reader.next()) {
+                addresses.add(reader.address());
+                endpoints.add(reader.endpoint());
+                assertEquals(reader.address(), reader.getShort(0));
+            }
+        }
+        assertEquals(written, addresses.size());
+        for (int i = 0; i < addresses.size(); i++) {
+            assertEquals(i, (int) addresses.get(i));
+        }
+        assertEquals(second.toString(), endpoints.get(30));
+        assertEquals(first.toString(), endpoints.get(31));
+    }
+
+    @Test
+    public void retainByTotalSize() throws Exception {
+        int segmentBytes = 1024;
+        try (RegisterRecorder recorder = new RegisterRecorder(dir, segmentBytes, 3600_000L, 4 * segmentBytes)) {
+            for (int i = 0; i < 100; i++) {
+                appendUntilRecorded(recorder, first, i);
+            }
+        }
+        // 关闭时删除预先创建的分段, 剩余不超过总大小上限
+        List<Path> segments = RegisterRecorder.segments(dir);
+        assertTrue(segments.size() <= 4);
+
+        // 最早的记录已随分段删除, 剩余记录仍连续
+        int previous = -1;
+        try (RecordReader reader = new RecordReader(dir, 0, Long.MAX_VALUE)) {
+            while (reader.next()) {
+                if (previous >= 0) {
+                    assertEquals(previous + 1, reader.address());
+                }
+                previous = reader.address();
+            }
+        }
+        assertEquals(99, previous);
+    }
+
+    @Test
+    public void concurrentAppends() throws Exception {
+        int threads = 4;
+        int perThread = 2000;
+        long records;
+        try (RegisterRecorder recorder = new RegisterRecorder(dir, 64 << 10, 3600_000L, Long.MAX_VALUE)) {
+            List<Thread> list = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        recorder.append(id % 2 == 0 ? first : second, id, ModbusByteBuf.wrap(new short[]{(short) i, (short) id}));
+                    }
+                });
+                list.add(thread);
+                thread.start();
+            }
+            for (Thread thread : list) {
+                thread.join();
+            }
+            records = recorder.records();
+            assertEquals(threads * perThread, records + recorder.dropped());
+        }
+
+        int[] next = new int[threads];
+        int read = 0;
+        try (RecordReader reader = new RecordReader(dir, 0, Long.MAX_VALUE)) {
+            while (reader.next()) {
+                int id = reader.address();
+                assertEquals(id, reader.getShort(1));
+                // 同一线程的记录保持写入顺序, 被丢弃的记录跳过
+                assertTrue(reader.getShort(0) >= next[id]);
+                next[id] = reader.getShort(0) + 1;
+                read++;
+            }
+        }
+        assertEquals(records, read);
+    }
+
+    /**
+     * 写入一条100个寄存器的记录, 下一分段尚未就绪而被丢弃时重试
+     *
+     * @return 写入的记录数
+     */
+    private static int appendUntilRecorded(RegisterRecorder recorder, ModbusEndpoint endpoint, int address) throws InterruptedException {
+        short[] values = new short[100];
+        values[0] = (short) address;
+        long records = recorder.records();
+        while (true) {
+            recorder.append(endpoint, address, ModbusByteBuf.wrap(values));
+            if (recorder.records() > records) {
+                return 1;
+            }
+            Thread.sleep(1);
+        }
+    }
+}
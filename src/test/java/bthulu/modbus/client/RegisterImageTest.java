@@ -0,0 +1,135 @@
+package bthulu.modbus.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RegisterImageTest {
+    private final RegisterImage image = new RegisterImage(null, 100, 10);
+    private final List<RegisterDelta> deltas = new ArrayList<>();
+
+    @Test
+    public void firstReadReportsAll() {
+        image.subscribe(deltas::add);
+        assertFalse(image.isKnown(100));
+        assertEquals(3, image.update(100, ModbusByteBuf.wrap(new short[]{0, 1, 2})));
+        assertEquals(1, deltas.size());
+        assertDelta(deltas.get(0), 100, 0, 101, 1, 102, 2);
+        assertTrue(image.isKnown(102));
+        assertFalse(image.isKnown(103));
+        assertEquals(2, image.get(102));
+    }
+
+    @Test
+    public void onlyChangesReported() {
+        image.update(100, ModbusByteBuf.wrap(new short[]{0, 1, 2}));
+        image.subscribe(deltas::add);
+        assertEquals(0, image.update(100, ModbusByteBuf.wrap(new short[]{0, 1, 2})));
+        assertTrue(deltas.isEmpty());
+
+        assertEquals(1, image.update(100, ModbusByteBuf.wrap(new short[]{0, 5, 2})));
+        assertDelta(deltas.get(0), 101, 5);
+    }
+
+    @Test
+    public void updateOutsideImageIgnored() {
+        // 结果覆盖[98, 104), 映像从100开始
+        assertEquals(4, image.update(98, ModbusByteBuf.wrap(new short[]{9, 9, 1, 2, 3, 4})));
+        assertEquals(1, image.get(100));
+        assertEquals(4, image.get(103));
+        // 结果覆盖[108, 112), 映像到110结束
+        assertEquals(2, image.update(108, ModbusByteBuf.wrap(new short[]{8, 9, 10, 11})));
+        assertEquals(9, image.get(109));
+        assertEquals(0, image.update(200, ModbusByteBuf.wrap(new short[]{1})));
+    }
+
+    @Test
+    public void updateReadsFromReaderIndex() {
+        ModbusByteBuf buf = ModbusByteBuf.wrap(new short[]{7, 8, 9});
+        buf.readShort();
+        assertEquals(2, image.update(100, buf));
+        assertEquals(8, image.get(100));
+        assertEquals(9, image.get(101));
+        assertEquals(4, buf.readableBytes());
+    }
+
+    @Test
+    public void deadbandComparesWithLastReported() {
+        image.setDeadband(100, 1, 5);
+        image.subscribe(deltas::add);
+        image.update(100, ModbusByteBuf.wrap(new short[]{100, 100}));
+        deltas.clear();
+
+        // 第二个寄存器没有死区
+        assertEquals(1, image.update(100, ModbusByteBuf.wrap(new short[]{103, 101})));
+        assertDelta(deltas.get(0), 101, 101);
+        assertEquals(100, image.get(100));
+
+        // 缓慢漂移累计超过死区后上报
+        assertEquals(0, image.update(100, ModbusByteBuf.wrap(new short[]{105, 101})));
+        assertEquals(1, image.update(100, ModbusByteBuf.wrap(new short[]{106, 101})));
+        assertEquals(106, image.get(100));
+        assertEquals(0, image.update(100, ModbusByteBuf.wrap(new short[]{101, 101})));
+    }
+
+    @Test
+    public void deadbandSignedAcrossZero() {
+        image.setDeadband(100, 1, 2);
+        image.update(100, ModbusByteBuf.wrap(new short[]{1}));
+        assertEquals(0, image.update(100, ModbusByteBuf.wrap(new short[]{-1})));
+        assertEquals(1, image.update(100, ModbusByteBuf.wrap(new short[]{-2})));
+        assertEquals(-2, image.get(100));
+    }
+
+    @Test
+    public void rangeSubscriptionSeesOnlyItsRange() {
+        List<RegisterDelta> ranged = new ArrayList<>();
+        image.subscribe(104, 2, ranged::add);
+        image.update(100, ModbusByteBuf.wrap(new short[]{1, 2, 3}));
+        assertTrue(ranged.isEmpty());
+
+        image.update(103, ModbusByteBuf.wrap(new short[]{4, 5, 6, 7}));
+        assertEquals(1, ranged.size());
+        assertDelta(ranged.get(0), 104, 5, 105, 6);
+    }
+
+    @Test
+    public void cancelledSubscriptionNotNotified() {
+        RegisterImage.DeltaSubscription subscription = image.subscribe(deltas::add);
+        subscription.cancel();
+        assertEquals(1, image.update(100, ModbusByteBuf.wrap(new short[]{1})));
+        assertTrue(deltas.isEmpty());
+    }
+
+    @Test
+    public void pollerListenerUpdatesAndReleases() {
+        ReadBatch batch = ReadBatch.create().add(100, 2).add(108, 1);
+        ModbusByteBuf first = ModbusByteBuf.wrap(new short[]{1, 2});
+        ModbusByteBuf second = ModbusByteBuf.wrap(new short[]{3});
+        image.listener(batch).accept(Arrays.asList(first, second), null);
+        assertEquals(2, image.get(101));
+        assertEquals(3, image.get(108));
+        assertEquals(0, first.delegate().refCnt());
+        assertEquals(0, second.delegate().refCnt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getOutOfRange() {
+        image.get(110);
+    }
+
+    /**
+     * @param pairs 依次为地址和值
+     */
+    private static void assertDelta(RegisterDelta delta, int... pairs) {
+        assertEquals(pairs.length / 2, delta.size());
+        for (int i = 0; i < delta.size(); i++) {
+            assertEquals(pairs[i * 2], delta.address(i));
+            assertEquals(pairs[i * 2 + 1], delta.value(i));
+        }
+    }
+}
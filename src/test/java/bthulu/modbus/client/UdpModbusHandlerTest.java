@@ -0,0 +1,123 @@
+package bthulu.modbus.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 以本机回环的udp从站验证共享通道上按来源地址及事务编号匹配响应, 以及超时检查
+ */
+public class UdpModbusHandlerTest {
+    private final EventLoopGroup slaveGroup = new NioEventLoopGroup(1);
+    private final List<Channel> slaves = new ArrayList<>();
+    private ModbusMaster master;
+
+    @Before
+    public void setUp() {
+        // 单线程, 所有设备共用一个DatagramChannel
+        master = new ModbusMaster(1, 60, 3, new NioEventLoopGroup(1));
+        master.setUdp(true);
+        master.setPacing(() -> PacingPolicy.pipeline(8));
+    }
+
+    @After
+    public void tearDown() {
+        master.close();
+        for (Channel slave : slaves) {
+            slave.close().syncUninterruptibly();
+        }
+        slaveGroup.shutdownGracefully();
+    }
+
+    @Test
+    public void responsesMatchedBySenderAndTid() throws Exception {
+        ModbusEndpoint first = master.endpoint(slave(1000, false));
+        ModbusEndpoint second = master.endpoint(slave(2000, false));
+        // 两台设备的事务编号都从0开始, 同一编号的响应按来源地址区分
+        List<CompletableFuture<ModbusByteBuf>> firstReads = new ArrayList<>();
+        List<CompletableFuture<ModbusByteBuf>> secondReads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            firstReads.add(master.readAsync(first, i, 1));
+            secondReads.add(master.readAsync(second, i, 1));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertRead(1000 + i, firstReads.get(i));
+            assertRead(2000 + i, secondReads.get(i));
+        }
+    }
+
+    @Test
+    public void silentPeerTimesOut() throws Exception {
+        ModbusEndpoint silent = master.endpoint(slave(0, true));
+        ModbusEndpoint alive = master.endpoint(slave(3000, false));
+        long start = System.nanoTime();
+        CompletableFuture<ModbusByteBuf> lost = master.readAsync(silent, 0, 1, 0);
+        assertRead(3005, master.readAsync(alive, 5, 1));
+        try {
+            lost.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusException);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.valueOf(elapsedMs), elapsedMs >= 1000 && elapsedMs < 3000);
+        assertEquals(1, silent.metrics.getTimeouts());
+
+        // 超时释放事务编号后, 同一设备的其他请求照常发送
+        assertRead(3006, master.readAsync(alive, 6, 1));
+    }
+
+    private static void assertRead(int expected, CompletableFuture<ModbusByteBuf> f) throws Exception {
+        ModbusByteBuf buf = f.get(5, TimeUnit.SECONDS);
+        assertEquals(expected, buf.readShort());
+        buf.release();
+    }
+
+    /**
+     * 启动只处理功能码3的udp从站, 每个寄存器的值为base加地址
+     *
+     * @param silent 为true时不响应任何请求
+     * @return 从站地址
+     */
+    private String slave(int base, boolean silent) {
+        Channel slave = new Bootstrap().group(slaveGroup).channel(NioDatagramChannel.class)
+                .handler(new SimpleChannelInboundHandler<DatagramPacket>() {
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+                        if (silent) {
+                            return;
+                        }
+                        ByteBuf in = packet.content();
+                        int address = in.getUnsignedShort(8);
+                        int count = in.getUnsignedShort(10);
+                        ByteBuf out = ctx.alloc().buffer().writeShort(in.getUnsignedShort(0)).writeShort(0).writeShort(3 + count * 2)
+                                .writeByte(in.getUnsignedByte(6)).writeByte(3).writeByte(count * 2);
+                        for (int i = 0; i < count; i++) {
+                            out.writeShort(base + address + i);
+                        }
+                        ctx.writeAndFlush(new DatagramPacket(out, packet.sender()));
+                    }
+                })
+                .bind("127.0.0.1", 0).syncUninterruptibly().channel();
+        slaves.add(slave);
+        return "127.0.0.1:" + ((InetSocketAddress) slave.localAddress()).getPort();
+    }
+}
@@ -0,0 +1,150 @@
+package bthulu.modbus.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WriteCoalescerTest {
+    private static final int ILLEGAL_ADDRESS = 1000;
+
+    /**
+     * 从站收到的每个写入请求, 依次为起始地址和寄存器数量
+     */
+    private final List<int[]> requests = new CopyOnWriteArrayList<>();
+    private LocalSlave slave;
+    private ModbusMaster master;
+    private ModbusEndpoint endpoint;
+    private WriteCoalescer coalescer;
+
+    @Before
+    public void setUp() throws Exception {
+        // 写入ILLEGAL_ADDRESS及之后的地址时返回非法地址异常
+        slave = new LocalSlave() {
+            @Override
+            protected void respond(ChannelHandlerContext ctx, ByteBuf in, int connection) {
+                int address = in.getUnsignedShort(8);
+                int count = in.getUnsignedShort(10);
+                if (address + count > ILLEGAL_ADDRESS) {
+                    exception(ctx, in, 2);
+                    return;
+                }
+                requests.add(new int[]{address, count});
+                super.respond(ctx, in, connection);
+            }
+        };
+        master = new ModbusMaster(3, 60, 3, new NioEventLoopGroup(1));
+        endpoint = master.endpoint(slave.address());
+        coalescer = new WriteCoalescer(master, 50);
+    }
+
+    @After
+    public void tearDown() {
+        master.close();
+        slave.close();
+    }
+
+    @Test
+    public void overlappingWritesMerged() throws Exception {
+        CompletableFuture<Void> f1 = coalescer.writeAsync(endpoint, 10, ModbusByteBuf.wrap(new short[]{1, 2, 3}));
+        CompletableFuture<Void> f2 = coalescer.writeAsync(endpoint, 12, ModbusByteBuf.wrap(new short[]{30, 4}));
+        f1.get(3, TimeUnit.SECONDS);
+        f2.get(3, TimeUnit.SECONDS);
+
+        assertEquals(1, requests.size());
+        assertRequest(requests.get(0), 10, 4);
+        // 同一寄存器只保留最后一次写入
+        assertRegisters(10, 1, 2, 30, 4);
+    }
+
+    @Test
+    public void unorderedWritesSortedByAddress() throws Exception {
+        CompletableFuture<Void> f1 = coalescer.writeAsync(endpoint, 32, ModbusByteBuf.wrap(new short[]{3}));
+        CompletableFuture<Void> f2 = coalescer.writeAsync(endpoint, 30, ModbusByteBuf.wrap(new short[]{1, 9}));
+        CompletableFuture<Void> f3 = coalescer.writeAsync(endpoint, 31, ModbusByteBuf.wrap(new short[]{2}));
+        CompletableFuture.allOf(f1, f2, f3).get(3, TimeUnit.SECONDS);
+
+        assertEquals(1, requests.size());
+        assertRequest(requests.get(0), 30, 3);
+        assertRegisters(30, 1, 2, 3);
+    }
+
+    @Test
+    public void gapSplitsRequests() throws Exception {
+        CompletableFuture<Void> f1 = coalescer.writeAsync(endpoint, 0, ModbusByteBuf.wrap(new short[]{1}));
+        CompletableFuture<Void> f2 = coalescer.writeAsync(endpoint, 2, ModbusByteBuf.wrap(new short[]{3}));
+        CompletableFuture.allOf(f1, f2).get(3, TimeUnit.SECONDS);
+
+        assertEquals(2, requests.size());
+        assertRequest(requests.get(0), 0, 1);
+        assertRequest(requests.get(1), 2, 1);
+    }
+
+    @Test
+    public void splitAtMaxRegisters() throws Exception {
+        short[] first = new short[100];
+        short[] second = new short[50];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = (short) i;
+        }
+        for (int i = 0; i < second.length; i++) {
+            second[i] = (short) (first.length + i);
+        }
+        CompletableFuture<Void> f1 = coalescer.writeAsync(endpoint, 0, ModbusByteBuf.wrap(first));
+        CompletableFuture<Void> f2 = coalescer.writeAsync(endpoint, 100, ModbusByteBuf.wrap(second));
+        CompletableFuture.allOf(f1, f2).get(3, TimeUnit.SECONDS);
+
+        assertEquals(2, requests.size());
+        assertRequest(requests.get(0), 0, WriteCoalescer.MAX_REGISTERS);
+        assertRequest(requests.get(1), WriteCoalescer.MAX_REGISTERS, 150 - WriteCoalescer.MAX_REGISTERS);
+        for (int i = 0; i < 150; i++) {
+            assertEquals(i, slave.registers[i]);
+        }
+    }
+
+    @Test
+    public void writesReadableBytesOnly() throws Exception {
+        ModbusByteBuf buf = ModbusByteBuf.wrap(new short[]{9, 9, 5, 6});
+        buf.skipRegisters(2);
+        coalescer.writeAsync(endpoint, 20, buf).get(3, TimeUnit.SECONDS);
+
+        assertEquals(1, requests.size());
+        assertRequest(requests.get(0), 20, 2);
+        assertRegisters(20, 5, 6, 0);
+    }
+
+    @Test
+    public void failedRequestFailsCoveringWritesOnly() throws Exception {
+        CompletableFuture<Void> ok = coalescer.writeAsync(endpoint, 0, ModbusByteBuf.wrap(new short[]{1}));
+        CompletableFuture<Void> failed = coalescer.writeAsync(endpoint, ILLEGAL_ADDRESS, ModbusByteBuf.wrap(new short[]{2}));
+        ok.get(3, TimeUnit.SECONDS);
+        try {
+            failed.get(3, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusException);
+        }
+        assertEquals(1, slave.registers[0]);
+    }
+
+    private static void assertRequest(int[] request, int address, int count) {
+        assertEquals(address, request[0]);
+        assertEquals(count, request[1]);
+    }
+
+    private void assertRegisters(int address, int... values) {
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], slave.registers[address + i]);
+        }
+    }
+}